@@ -10,6 +10,8 @@ import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.net.VpnService;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -18,16 +20,22 @@ import androidx.core.app.ActivityCompat;
 
 import dev.amirzr.flutter_v2ray_client.v2ray.V2rayController;
 import dev.amirzr.flutter_v2ray_client.v2ray.V2rayReceiver;
+import dev.amirzr.flutter_v2ray_client.v2ray.core.V2rayDelayCache;
+import dev.amirzr.flutter_v2ray_client.v2ray.core.V2rayDelayTester;
 import dev.amirzr.flutter_v2ray_client.v2ray.utils.AppConfigs;
 import dev.amirzr.flutter_v2ray_client.v2ray.utils.LogcatManager;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.embedding.engine.plugins.activity.ActivityAware;
 import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
+import io.flutter.plugin.common.BinaryMessenger;
 import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.PluginRegistry;
@@ -40,10 +48,22 @@ public class FlutterV2rayPlugin implements FlutterPlugin, ActivityAware, PluginR
     private static final int REQUEST_CODE_VPN_PERMISSION = 24;
     private static final int REQUEST_CODE_POST_NOTIFICATIONS = 1;
     private final ExecutorService executor = Executors.newCachedThreadPool();
+    /**
+     * Runs start, switch and stop one at a time in call order, so a stop can't overtake a start.
+     */
+    private final ExecutorService serviceCommands = Executors.newSingleThreadExecutor();
 
     private MethodChannel vpnControlMethod;
     private EventChannel vpnStatusEvent;
     private EventChannel.EventSink vpnStatusSink;
+    private BinaryMessenger messenger;
+    /**
+     * Delay streams by id, each on its own channel so a cancelled stream can't silence a newer one.
+     * Only touched on the main thread.
+     */
+    private final Map<Object, EventChannel> serverDelayChannels = new HashMap<>();
+    private final Map<Object, V2rayDelayTester.Batch> serverDelayBatches = new HashMap<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private Activity activity;
     private Context appContext;
     private BroadcastReceiver v2rayBroadCastReceiver;
@@ -55,6 +75,7 @@ public class FlutterV2rayPlugin implements FlutterPlugin, ActivityAware, PluginR
         this.appContext = binding.getApplicationContext();
         vpnControlMethod = new MethodChannel(binding.getBinaryMessenger(), "flutter_v2ray_client");
         vpnStatusEvent = new EventChannel(binding.getBinaryMessenger(), "flutter_v2ray_client/status");
+        messenger = binding.getBinaryMessenger();
 
         vpnStatusEvent.setStreamHandler(new EventChannel.StreamHandler() {
             @Override
@@ -105,19 +126,73 @@ public class FlutterV2rayPlugin implements FlutterPlugin, ActivityAware, PluginR
         vpnControlMethod.setMethodCallHandler((call, result) -> {
             switch (call.method) {
                 case "startV2Ray":
-                    AppConfigs.NOTIFICATION_DISCONNECT_BUTTON_NAME = call.argument("notificationDisconnectButtonName");
-                    if (Boolean.TRUE.equals(call.argument("proxy_only"))) {
-                        V2rayController.changeConnectionMode(AppConfigs.V2RAY_CONNECTION_MODES.PROXY_ONLY);
-                    } else {
-                        V2rayController.changeConnectionMode(AppConfigs.V2RAY_CONNECTION_MODES.VPN_TUN);
-                    }
-                    V2rayController.StartV2ray(binding.getApplicationContext(), call.argument("remark"),
-                            call.argument("config"), call.argument("blocked_apps"), call.argument("bypass_subnets"));
-                    result.success(null);
+                    // the options are applied in call order with the start they belong to: a switch or
+                    // start queued before this one still parses with its own options
+                    serviceCommands.submit(() -> {
+                        try {
+                            AppConfigs.NOTIFICATION_DISCONNECT_BUTTON_NAME = call.argument("notificationDisconnectButtonName");
+                            if (Boolean.TRUE.equals(call.argument("proxy_only"))) {
+                                V2rayController.changeConnectionMode(AppConfigs.V2RAY_CONNECTION_MODES.PROXY_ONLY);
+                            } else {
+                                V2rayController.changeConnectionMode(AppConfigs.V2RAY_CONNECTION_MODES.VPN_TUN);
+                            }
+                            Integer failoverCheckInterval = call.argument("failover_check_interval");
+                            Integer failoverMaxFailures = call.argument("failover_max_failures");
+                            Integer failoverLatencyThreshold = call.argument("failover_latency_threshold");
+                            String failoverUrl = call.argument("failover_url");
+                            AppConfigs.FAILOVER_CONFIGS = call.argument("failover_configs");
+                            AppConfigs.FAILOVER_URL = failoverUrl != null ? failoverUrl : "https://google.com/generate_204";
+                            AppConfigs.FAILOVER_CHECK_INTERVAL = failoverCheckInterval != null ? failoverCheckInterval : 10000;
+                            AppConfigs.FAILOVER_MAX_FAILURES = failoverMaxFailures != null ? failoverMaxFailures : 3;
+                            AppConfigs.FAILOVER_LATENCY_THRESHOLD = failoverLatencyThreshold != null ? failoverLatencyThreshold : 0;
+                            AppConfigs.TUN_ENGINE = "xray".equals(call.argument("tun_engine"))
+                                    ? AppConfigs.TUN_ENGINES.XRAY : AppConfigs.TUN_ENGINES.TUN2SOCKS;
+                            String tun2socksLogLevel = call.argument("tun2socks_log_level");
+                            AppConfigs.TUN2SOCKS_LOG_LEVEL = tun2socksLogLevel != null ? tun2socksLogLevel : "error";
+                            Integer mtu = call.argument("mtu");
+                            AppConfigs.MTU = mtu != null ? mtu : 1500;
+                            String ipv6Mode = call.argument("ipv6_mode");
+                            AppConfigs.IPV6_MODE = "tunnel".equals(ipv6Mode) ? AppConfigs.IPV6_MODES.TUNNEL
+                                    : "block".equals(ipv6Mode) ? AppConfigs.IPV6_MODES.BLOCK : AppConfigs.IPV6_MODES.OFF;
+                            AppConfigs.EXCLUDED_SUBNETS = call.argument("excluded_subnets");
+                            Boolean bypassLan = call.argument("bypass_lan");
+                            AppConfigs.BYPASS_LAN = bypassLan != null && bypassLan;
+                            AppConfigs.ALLOWED_APPS = call.argument("allowed_apps");
+                            Boolean httpProxy = call.argument("http_proxy");
+                            AppConfigs.HTTP_PROXY = httpProxy != null && httpProxy;
+                            Integer stallWindow = call.argument("stall_window");
+                            AppConfigs.STALL_WINDOW = stallWindow != null ? stallWindow : 0;
+                            V2rayController.StartV2ray(binding.getApplicationContext(), call.argument("remark"),
+                                    call.argument("config"), call.argument("blocked_apps"),
+                                    call.argument("bypass_subnets"));
+                            result.success(null);
+                        } catch (Exception e) {
+                            Log.e("FlutterV2rayPlugin", "Failed to start v2ray", e);
+                            result.error("START_ERROR", "Failed to start v2ray: " + e.getMessage(), null);
+                        }
+                    });
+                    break;
+                case "switchServer":
+                    serviceCommands.submit(() -> {
+                        try {
+                            result.success(V2rayController.switchServer(binding.getApplicationContext(),
+                                    call.argument("remark"), call.argument("config")));
+                        } catch (Exception e) {
+                            Log.e("FlutterV2rayPlugin", "Failed to switch server", e);
+                            result.error("SWITCH_ERROR", "Failed to switch server: " + e.getMessage(), null);
+                        }
+                    });
                     break;
                 case "stopV2Ray":
-                    V2rayController.StopV2ray(binding.getApplicationContext());
-                    result.success(null);
+                    serviceCommands.submit(() -> {
+                        try {
+                            V2rayController.StopV2ray(binding.getApplicationContext());
+                            result.success(null);
+                        } catch (Exception e) {
+                            Log.e("FlutterV2rayPlugin", "Failed to stop v2ray", e);
+                            result.error("STOP_ERROR", "Failed to stop v2ray: " + e.getMessage(), null);
+                        }
+                    });
                     break;
                 case "initializeV2Ray":
                     String iconResourceName = call.argument("notificationIconResourceName");
@@ -132,12 +207,98 @@ public class FlutterV2rayPlugin implements FlutterPlugin, ActivityAware, PluginR
                     executor.submit(() -> {
                         try {
                             result.success(
-                                    V2rayController.getV2rayServerDelay(call.argument("config"), call.argument("url")));
+                                    V2rayController.getV2rayServerDelay(call.argument("config"), call.argument("url"),
+                                            getProbeType(call.argument("type"))));
                         } catch (Exception e) {
                             result.success(-1);
                         }
                     });
                     break;
+                case "openServerDelaysStream":
+                    openServerDelayStream(call.argument("id"));
+                    result.success(null);
+                    break;
+                case "closeServerDelaysStream":
+                    closeServerDelayStream(call.argument("id"));
+                    result.success(null);
+                    break;
+                case "getServerDelays":
+                    executor.submit(() -> {
+                        try {
+                            Integer concurrency = call.argument("concurrency");
+                            Integer timeout = call.argument("timeout");
+                            result.success(V2rayController.getV2rayServerDelays(call.argument("configs"),
+                                    call.argument("url"), getProbeType(call.argument("type")),
+                                    concurrency != null ? concurrency : V2rayDelayTester.DEFAULT_CONCURRENCY,
+                                    timeout != null ? timeout : 0));
+                        } catch (Exception e) {
+                            Log.e("FlutterV2rayPlugin", "Failed to measure server delays", e);
+                            result.error("DELAY_ERROR", "Failed to measure server delays: " + e.getMessage(), null);
+                        }
+                    });
+                    break;
+                case "getServerDelayStats":
+                    executor.submit(() -> {
+                        try {
+                            Integer samples = call.argument("samples");
+                            Integer interval = call.argument("interval");
+                            result.success(V2rayController.getV2rayServerDelayStats(call.argument("config"),
+                                    call.argument("url"), getProbeType(call.argument("type")),
+                                    samples != null ? samples : V2rayDelayTester.DEFAULT_SAMPLES,
+                                    interval != null ? interval : V2rayDelayTester.DEFAULT_SAMPLE_INTERVAL_MILLIS)
+                                    .toMap());
+                        } catch (Exception e) {
+                            Log.e("FlutterV2rayPlugin", "Failed to measure server delay stats", e);
+                            result.error("DELAY_ERROR", "Failed to measure server delay stats: " + e.getMessage(), null);
+                        }
+                    });
+                    break;
+                case "configureDelayCache":
+                    Integer ttl = call.argument("ttl");
+                    Integer maxEntries = call.argument("maxEntries");
+                    V2rayController.configureDelayCache(
+                            ttl != null ? ttl : V2rayDelayCache.DEFAULT_TTL_MILLIS,
+                            maxEntries != null ? maxEntries : V2rayDelayCache.DEFAULT_MAX_ENTRIES);
+                    result.success(null);
+                    break;
+                case "clearDelayCache":
+                    V2rayController.clearDelayCache();
+                    result.success(null);
+                    break;
+                case "getDelayCacheStats":
+                    result.success(V2rayController.getDelayCacheStats());
+                    break;
+                case "getTopServers":
+                    executor.submit(() -> {
+                        try {
+                            Integer count = call.argument("count");
+                            result.success(V2rayController.getTopServers(count != null ? count : 10,
+                                    call.argument("configs")));
+                        } catch (Exception e) {
+                            Log.e("FlutterV2rayPlugin", "Failed to get top servers", e);
+                            result.error("QUALITY_ERROR", "Failed to get top servers: " + e.getMessage(), null);
+                        }
+                    });
+                    break;
+                case "buildBalancerConfig":
+                    executor.submit(() -> {
+                        try {
+                            String url = call.argument("url");
+                            result.success(V2rayController.buildBalancerConfig(call.argument("configs"),
+                                    getBalancerStrategy(call.argument("strategy")),
+                                    url != null ? url : "https://google.com/generate_204"));
+                        } catch (Exception e) {
+                            Log.e("FlutterV2rayPlugin", "Failed to build balancer config", e);
+                            result.error("BALANCER_ERROR", "Failed to build balancer config: " + e.getMessage(), null);
+                        }
+                    });
+                    break;
+                case "getConnectTraces":
+                    result.success(V2rayController.getConnectTraces());
+                    break;
+                case "getTun2socksStats":
+                    result.success(V2rayController.getTun2socksStats());
+                    break;
                 case "getConnectedServerDelay":
                     executor.submit(() -> {
                         try {
@@ -210,6 +371,85 @@ public class FlutterV2rayPlugin implements FlutterPlugin, ActivityAware, PluginR
         });
     }
 
+    private static AppConfigs.DELAY_PROBE_TYPES getProbeType(@Nullable String type) {
+        if (type == null) {
+            return AppConfigs.DELAY_PROBE_TYPES.HTTP;
+        }
+        try {
+            return AppConfigs.DELAY_PROBE_TYPES.valueOf(type.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return AppConfigs.DELAY_PROBE_TYPES.HTTP;
+        }
+    }
+
+    private static AppConfigs.BALANCER_STRATEGIES getBalancerStrategy(@Nullable String strategy) {
+        for (AppConfigs.BALANCER_STRATEGIES value : AppConfigs.BALANCER_STRATEGIES.values()) {
+            if (value.type.equals(strategy)) {
+                return value;
+            }
+        }
+        return AppConfigs.BALANCER_STRATEGIES.RANDOM;
+    }
+
+    /**
+     * Registers the channel {@code flutter_v2ray_client/delays/<id>}. Listening to it probes the configs
+     * of its arguments and pushes {@code index, delay} events as each probe completes.
+     */
+    private void openServerDelayStream(final Object id) {
+        closeServerDelayStream(id);
+        EventChannel channel = new EventChannel(messenger, "flutter_v2ray_client/delays/" + id);
+        channel.setStreamHandler(new EventChannel.StreamHandler() {
+            @Override
+            public void onListen(Object arguments, EventChannel.EventSink events) {
+                Map<?, ?> args = arguments instanceof Map ? (Map<?, ?>) arguments : new HashMap<>();
+                @SuppressWarnings("unchecked")
+                List<String> configs = (List<String>) args.get("configs");
+                Integer concurrency = (Integer) args.get("concurrency");
+                Integer timeout = (Integer) args.get("timeout");
+                final V2rayDelayTester.Batch batch = new V2rayDelayTester.Batch(configs, (String) args.get("url"),
+                        getProbeType((String) args.get("type")),
+                        concurrency != null ? concurrency : V2rayDelayTester.DEFAULT_CONCURRENCY,
+                        timeout != null ? timeout : 0);
+                serverDelayBatches.put(id, batch);
+                executor.submit(() -> {
+                    batch.run((index, delay) -> {
+                        Map<String, Object> event = new HashMap<>();
+                        event.put("index", index);
+                        event.put("delay", delay);
+                        mainHandler.post(() -> {
+                            if (!batch.isCancelled()) {
+                                events.success(event);
+                            }
+                        });
+                    });
+                    mainHandler.post(() -> {
+                        if (!batch.isCancelled()) {
+                            events.endOfStream();
+                        }
+                    });
+                });
+            }
+
+            @Override
+            public void onCancel(Object arguments) {
+                // also sent after the end of the stream, the channel is released here
+                closeServerDelayStream(id);
+            }
+        });
+        serverDelayChannels.put(id, channel);
+    }
+
+    private void closeServerDelayStream(final Object id) {
+        V2rayDelayTester.Batch batch = serverDelayBatches.remove(id);
+        if (batch != null) {
+            batch.cancel();
+        }
+        EventChannel channel = serverDelayChannels.remove(id);
+        if (channel != null) {
+            channel.setStreamHandler(null);
+        }
+    }
+
     @Override
     public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
         if (v2rayBroadCastReceiver != null) {
@@ -223,7 +463,11 @@ public class FlutterV2rayPlugin implements FlutterPlugin, ActivityAware, PluginR
         }
         vpnControlMethod.setMethodCallHandler(null);
         vpnStatusEvent.setStreamHandler(null);
+        for (Object id : new ArrayList<>(serverDelayChannels.keySet())) {
+            closeServerDelayStream(id);
+        }
         executor.shutdown();
+        serviceCommands.shutdown();
     }
 
     @Override
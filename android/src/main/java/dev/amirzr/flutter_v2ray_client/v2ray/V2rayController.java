@@ -5,30 +5,66 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Build;
+import android.util.Log;
 
+import dev.amirzr.flutter_v2ray_client.v2ray.core.V2rayConnectTracer;
 import dev.amirzr.flutter_v2ray_client.v2ray.core.V2rayCoreManager;
+import dev.amirzr.flutter_v2ray_client.v2ray.core.V2rayDelayCache;
+import dev.amirzr.flutter_v2ray_client.v2ray.core.V2rayDelayStats;
+import dev.amirzr.flutter_v2ray_client.v2ray.core.V2rayDelayTester;
+import dev.amirzr.flutter_v2ray_client.v2ray.core.V2rayProbeConfig;
+import dev.amirzr.flutter_v2ray_client.v2ray.core.V2rayServerQualityStore;
+import dev.amirzr.flutter_v2ray_client.v2ray.services.V2rayCoreWarmUpService;
 import dev.amirzr.flutter_v2ray_client.v2ray.services.V2rayProxyOnlyService;
 import dev.amirzr.flutter_v2ray_client.v2ray.services.V2rayVPNService;
 import dev.amirzr.flutter_v2ray_client.v2ray.utils.AppConfigs;
 import dev.amirzr.flutter_v2ray_client.v2ray.utils.Utilities;
+import dev.amirzr.flutter_v2ray_client.v2ray.utils.V2rayBalancerConfig;
+import dev.amirzr.flutter_v2ray_client.v2ray.utils.V2rayConfig;
 
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import libv2ray.Libv2ray;
 
 public class V2rayController {
+    private static volatile Map<String, Object> tun2socksStats = new HashMap<>();
+    // the receivers live for the whole process, init can run again after a hot restart or from a new engine
+    private static boolean receiversRegistered = false;
 
     public static void init(final Context context, final int app_icon, final String app_name) {
         Utilities.copyAssets(context);
+        V2rayServerQualityStore.getInstance().init(context);
+        // warm the core environment in the service process, so the first connect only binds its service
+        try {
+            context.startService(new Intent(context, V2rayCoreWarmUpService.class));
+        } catch (Exception e) {
+            Log.w("V2rayController", "core warm up skipped => " + e);
+        }
         AppConfigs.APPLICATION_ICON = app_icon;
         AppConfigs.APPLICATION_NAME = app_name;
+        registerReceivers(context.getApplicationContext());
+    }
 
+    private static synchronized void registerReceivers(final Context context) {
+        if (receiversRegistered) {
+            return;
+        }
+        receiversRegistered = true;
         BroadcastReceiver receiver = new BroadcastReceiver() {
             @Override
+            @SuppressWarnings("unchecked")
             public void onReceive(Context arg0, Intent arg1) {
                 AppConfigs.V2RAY_STATE = (AppConfigs.V2RAY_STATES) arg1.getExtras().getSerializable("STATE");
+                Serializable stats = arg1.getExtras().getSerializable("TUN2SOCKS_STATS");
+                if (stats instanceof Map) {
+                    tun2socksStats = (Map<String, Object>) stats;
+                }
             }
         };
         // Use package-specific intent filter to isolate broadcasts per app
@@ -39,6 +75,37 @@ public class V2rayController {
         } else {
             context.registerReceiver(receiver, filter);
         }
+
+        BroadcastReceiver traceReceiver = new BroadcastReceiver() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public void onReceive(Context arg0, Intent arg1) {
+                Serializable trace = arg1.getSerializableExtra("TRACE");
+                if (trace instanceof Map) {
+                    V2rayConnectTracer.getInstance().add((Map<String, Object>) trace);
+                }
+            }
+        };
+        IntentFilter traceFilter = new IntentFilter(packageName + ".V2RAY_CONNECT_TRACE");
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            context.registerReceiver(traceReceiver, traceFilter, Context.RECEIVER_NOT_EXPORTED);
+        } else {
+            context.registerReceiver(traceReceiver, traceFilter);
+        }
+
+        BroadcastReceiver qualityReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context arg0, Intent arg1) {
+                V2rayServerQualityStore.getInstance().record(arg1.getStringExtra("FINGERPRINT"),
+                        arg1.getBooleanExtra("SUCCESS", false), arg1.getLongExtra("LATENCY", -1));
+            }
+        };
+        IntentFilter qualityFilter = new IntentFilter(packageName + ".V2RAY_SERVER_QUALITY");
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            context.registerReceiver(qualityReceiver, qualityFilter, Context.RECEIVER_NOT_EXPORTED);
+        } else {
+            context.registerReceiver(qualityReceiver, qualityFilter);
+        }
     }
 
     public static void changeConnectionMode(final AppConfigs.V2RAY_CONNECTION_MODES connection_mode) {
@@ -49,8 +116,12 @@ public class V2rayController {
 
     public static void StartV2ray(final Context context, final String remark, final String config,
             final ArrayList<String> blocked_apps, final ArrayList<String> bypass_subnets) {
-        AppConfigs.V2RAY_CONFIG = Utilities.parseV2rayJsonFile(remark, config, blocked_apps, bypass_subnets);
+        V2rayConnectTracer.getInstance().begin(V2rayConnectTracer.CONNECT);
+        V2rayConnectTracer.getInstance().start("parseV2rayJsonFile");
+        AppConfigs.V2RAY_CONFIG = Utilities.parseV2rayJsonFile(context, remark, config, blocked_apps, bypass_subnets);
+        V2rayConnectTracer.getInstance().end("parseV2rayJsonFile");
         if (AppConfigs.V2RAY_CONFIG == null) {
+            V2rayConnectTracer.getInstance().finish(false);
             return;
         }
         Intent start_intent;
@@ -63,6 +134,9 @@ public class V2rayController {
         }
         start_intent.putExtra("COMMAND", AppConfigs.V2RAY_SERVICE_COMMANDS.START_SERVICE);
         start_intent.putExtra("V2RAY_CONFIG", AppConfigs.V2RAY_CONFIG);
+        V2rayConnectTracer.getInstance().start("serviceIntent");
+        // the service finishes the trace and reports it back
+        start_intent.putExtra("CONNECT_TRACE", V2rayConnectTracer.getInstance().handOff());
         if (Build.VERSION.SDK_INT > Build.VERSION_CODES.N_MR1) {
             context.startForegroundService(start_intent);
         } else {
@@ -70,6 +144,52 @@ public class V2rayController {
         }
     }
 
+    /**
+     * Switches the running connection to {@code config} without tearing down the tun interface,
+     * falling back to {@link #StartV2ray} when the core is not connected or can't be swapped in place.
+     * The swap runs in the service process, this waits for its reply and must not be called on the
+     * main thread.
+     *
+     * @param remark null keeps the remark of the running connection
+     * @return switch time in milliseconds, -1 when a full restart was started instead or the service
+     * didn't reply in time (the switch may then still complete)
+     */
+    public static long switchServer(final Context context, final String remark, final String config) {
+        V2rayConfig current = AppConfigs.V2RAY_CONFIG;
+        ArrayList<String> blocked_apps = current != null ? current.BLOCKED_APPS : null;
+        ArrayList<String> bypass_subnets = current != null ? current.BYPASS_SUBNETS : null;
+        String switch_remark = remark != null ? remark : current != null ? current.REMARK : "";
+        Intent switch_intent = newServiceIntent(context);
+        if (current != null && switch_intent != null
+                && getConnectionState() == AppConfigs.V2RAY_STATES.V2RAY_CONNECTED) {
+            V2rayConfig v2rayConfig = Utilities.parseV2rayJsonFile(context, switch_remark, config, blocked_apps, bypass_subnets);
+            if (v2rayConfig == null) {
+                return -1;
+            }
+            if (!Utilities.isSameTunnel(current, v2rayConfig)) {
+                // e.g. the link mtu changed since connect or another http port has to be published,
+                // the interface has to be rebuilt
+                StartV2ray(context, switch_remark, config, blocked_apps, bypass_subnets);
+                return -1;
+            }
+            switch_intent.putExtra("COMMAND", AppConfigs.V2RAY_SERVICE_COMMANDS.SWITCH_SERVER);
+            switch_intent.putExtra("V2RAY_CONFIG", v2rayConfig);
+            Intent reply = requestFromService(context, switch_intent, ".V2RAY_SERVER_SWITCHED", 10000);
+            if (reply == null) {
+                // the switch may still be running in the service, a start now would race its core loop
+                Log.w("V2rayController", "switchServer => no reply from the service, restart skipped");
+                return -1;
+            }
+            long elapsed = reply.getLongExtra("ELAPSED", -1);
+            if (elapsed >= 0) {
+                AppConfigs.V2RAY_CONFIG = v2rayConfig;
+                return elapsed;
+            }
+        }
+        StartV2ray(context, switch_remark, config, blocked_apps, bypass_subnets);
+        return -1;
+    }
+
     public static void StopV2ray(final Context context) {
         Intent stop_intent;
         if (AppConfigs.V2RAY_CONNECTION_MODE == AppConfigs.V2RAY_CONNECTION_MODES.PROXY_ONLY) {
@@ -80,6 +200,9 @@ public class V2rayController {
             return;
         }
         stop_intent.putExtra("COMMAND", AppConfigs.V2RAY_SERVICE_COMMANDS.STOP_SERVICE);
+        V2rayConnectTracer.getInstance().begin(V2rayConnectTracer.DISCONNECT);
+        V2rayConnectTracer.getInstance().start("serviceIntent");
+        stop_intent.putExtra("CONNECT_TRACE", V2rayConnectTracer.getInstance().handOff());
         context.startService(stop_intent);
         AppConfigs.V2RAY_CONFIG = null;
     }
@@ -88,51 +211,131 @@ public class V2rayController {
         if (V2rayController.getConnectionState() != AppConfigs.V2RAY_STATES.V2RAY_CONNECTED) {
             return -1;
         }
-        Intent check_delay;
+        Intent check_delay = newServiceIntent(context);
+        if (check_delay == null) {
+            return -1;
+        }
+        check_delay.putExtra("COMMAND", AppConfigs.V2RAY_SERVICE_COMMANDS.MEASURE_DELAY);
+        Intent reply = requestFromService(context, check_delay, ".CONNECTED_V2RAY_SERVER_DELAY", 3000);
+        if (reply == null || reply.getExtras() == null) {
+            return -1;
+        }
+        String delayString = reply.getExtras().getString("DELAY");
+        return delayString != null ? Long.parseLong(delayString) : -1;
+    }
+
+    /**
+     * @return an intent for the service of the current connection mode, null without one
+     */
+    private static Intent newServiceIntent(final Context context) {
         if (AppConfigs.V2RAY_CONNECTION_MODE == AppConfigs.V2RAY_CONNECTION_MODES.PROXY_ONLY) {
-            check_delay = new Intent(context, V2rayProxyOnlyService.class);
+            return new Intent(context, V2rayProxyOnlyService.class);
         } else if (AppConfigs.V2RAY_CONNECTION_MODE == AppConfigs.V2RAY_CONNECTION_MODES.VPN_TUN) {
-            check_delay = new Intent(context, V2rayVPNService.class);
-        } else {
-            return -1;
+            return new Intent(context, V2rayVPNService.class);
         }
-        final long[] delay = { -1 };
+        return null;
+    }
 
+    /**
+     * Sends {@code command} to the service and waits for its reply broadcast.
+     *
+     * @param replyAction action of the reply, appended to the package name
+     * @return the reply, null on timeout
+     */
+    private static Intent requestFromService(final Context context, final Intent command, final String replyAction,
+            final long timeoutMillis) {
+        final Intent[] reply = { null };
         final CountDownLatch latch = new CountDownLatch(1);
-        check_delay.putExtra("COMMAND", AppConfigs.V2RAY_SERVICE_COMMANDS.MEASURE_DELAY);
-        context.startService(check_delay);
         BroadcastReceiver receiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context arg0, Intent arg1) {
-                String delayString = arg1.getExtras().getString("DELAY");
-                delay[0] = Long.parseLong(delayString);
-                context.unregisterReceiver(this);
+                reply[0] = arg1;
                 latch.countDown();
             }
         };
 
         // Use package-specific intent filter to isolate broadcasts per app
         String packageName = context.getPackageName();
-        IntentFilter delayIntentFilter = new IntentFilter(packageName + ".CONNECTED_V2RAY_SERVER_DELAY");
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            context.registerReceiver(receiver, delayIntentFilter, Context.RECEIVER_NOT_EXPORTED);
+        IntentFilter replyIntentFilter = new IntentFilter(packageName + replyAction);
+        // registered before sending, a fast reply would be missed otherwise
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            context.registerReceiver(receiver, replyIntentFilter, Context.RECEIVER_NOT_EXPORTED);
         } else {
-            context.registerReceiver(receiver, delayIntentFilter);
+            context.registerReceiver(receiver, replyIntentFilter);
         }
-
         try {
-            boolean received = latch.await(3000, TimeUnit.MILLISECONDS);
-            if (!received) {
-                return -1;
+            context.startService(command);
+            if (!latch.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                return null;
             }
         } catch (InterruptedException e) {
             e.printStackTrace();
+        } finally {
+            context.unregisterReceiver(receiver);
+        }
+        return reply[0];
+    }
+
+    public static long getV2rayServerDelay(final String config, final String url,
+            final AppConfigs.DELAY_PROBE_TYPES type) {
+        return V2rayCoreManager.getInstance().getV2rayServerDelay(config, url, type);
+    }
+
+    public static Map<Integer, Long> getV2rayServerDelays(final List<String> configs, final String url,
+            final AppConfigs.DELAY_PROBE_TYPES type, final int concurrency, final long timeout) {
+        return V2rayDelayTester.getServerDelays(configs, url, type, concurrency, timeout);
+    }
+
+    public static V2rayDelayStats getV2rayServerDelayStats(final String config, final String url,
+            final AppConfigs.DELAY_PROBE_TYPES type, final int samples, final long interval) {
+        return V2rayDelayTester.getServerDelayStats(config, url, type, samples, interval);
+    }
+
+    public static void configureDelayCache(final long ttl, final int maxEntries) {
+        V2rayDelayCache.getInstance().configure(ttl, maxEntries);
+    }
+
+    public static void clearDelayCache() {
+        V2rayDelayCache.getInstance().clear();
+    }
+
+    public static Map<String, Long> getDelayCacheStats() {
+        return V2rayDelayCache.getInstance().getStats();
+    }
+
+    public static List<Map<String, Object>> getTopServers(final int count, final List<String> configs) {
+        List<String> fingerprints = null;
+        if (configs != null) {
+            fingerprints = new ArrayList<>(configs.size());
+            for (String config : configs) {
+                fingerprints.add(V2rayProbeConfig.of(config).fingerprint);
+            }
         }
-        return delay[0];
+        return V2rayServerQualityStore.getInstance().getTopServers(count, fingerprints);
+    }
+
+    public static String buildBalancerConfig(final List<String> configs,
+            final AppConfigs.BALANCER_STRATEGIES strategy, final String url) throws Exception {
+        return V2rayBalancerConfig.build(configs, strategy, url);
+    }
+
+    /**
+     * The firstDownlink span is observed by polling the traffic counters every 50ms, it is missing
+     * when traffic statics are off.
+     *
+     * @return connect and disconnect traces finished by the service, and those that failed before
+     * reaching it
+     */
+    public static List<Map<String, Object>> getConnectTraces() {
+        return V2rayConnectTracer.getInstance().getTraces();
     }
 
-    public static long getV2rayServerDelay(final String config, final String url) {
-        return V2rayCoreManager.getInstance().getV2rayServerDelay(config, url);
+    /**
+     * @return restart counters, last exit code and uptime of tun2socks as of the last connection info
+     * broadcast of the service, empty before the first vpn connect
+     */
+    public static Map<String, Object> getTun2socksStats() {
+        return new HashMap<>(tun2socksStats);
     }
 
     public static AppConfigs.V2RAY_CONNECTION_MODES getConnectionMode() {
@@ -47,6 +47,13 @@ public class V2rayReceiver extends BroadcastReceiver {
                 list.add("DISCONNECTED");
             }
 
+            String event = intent.getExtras().getString("EVENT");
+            if (event != null) {
+                String detail = intent.getExtras().getString("EVENT_DETAIL");
+                list.add(event);
+                list.add(detail != null ? detail : "");
+            }
+
             vpnStatusSink.success(list);
         } catch (Exception e) {
             Log.e("V2rayReceiver", "onReceive failed", e);
@@ -0,0 +1,226 @@
+package dev.amirzr.flutter_v2ray_client.v2ray.core;
+
+import android.os.SystemClock;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records where the time of a connect or disconnect goes as spans on the monotonic clock and keeps
+ * the last {@link #MAX_TRACES} traces. Spans may overlap, e.g. the service start intent and
+ * {@code setUpListener}, and may be started and ended on different threads.
+ * <p>
+ * A trace begins in the plugin process and is handed to the service process with the service
+ * intent, see {@link #handOff} and {@link #resume}. The service finishes it and reports it back to
+ * the {@link Listener}. The monotonic clock is shared by both processes.
+ */
+public final class V2rayConnectTracer {
+    public static final int MAX_TRACES = 20;
+    public static final String CONNECT = "connect";
+    public static final String DISCONNECT = "disconnect";
+    private volatile static V2rayConnectTracer INSTANCE;
+
+    public interface Listener {
+        void onTraceFinished(Map<String, Object> trace);
+    }
+
+    private final ArrayDeque<Map<String, Object>> traces = new ArrayDeque<>();
+    private Trace current;
+    private Listener listener;
+
+    private V2rayConnectTracer() {
+    }
+
+    public static V2rayConnectTracer getInstance() {
+        if (INSTANCE == null) {
+            synchronized (V2rayConnectTracer.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new V2rayConnectTracer();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Starts a new trace of {@code kind}, an unfinished previous trace is kept as incomplete.
+     */
+    public synchronized void begin(final String kind) {
+        if (current != null) {
+            finish(false);
+        }
+        current = new Trace(kind, SystemClock.elapsedRealtimeNanos(), System.currentTimeMillis());
+    }
+
+    /**
+     * Starts {@code span} in the current trace. Without one the span waits in an unclaimed trace
+     * for a trace handed over by {@link #resume}, e.g. {@code setUpListener} runs in the service
+     * before its start intent arrives.
+     */
+    public synchronized void start(final String span) {
+        if (current == null) {
+            current = new Trace(null, SystemClock.elapsedRealtimeNanos(), System.currentTimeMillis());
+        }
+        current.open.put(span, SystemClock.elapsedRealtimeNanos());
+    }
+
+    /**
+     * Ends the span started with {@link #start}, ignored if it was never started in the current trace.
+     */
+    public synchronized void end(final String span) {
+        if (current == null) {
+            return;
+        }
+        Long startNanos = current.open.remove(span);
+        if (startNanos != null) {
+            current.spans.add(new Span(span, startNanos, SystemClock.elapsedRealtimeNanos()));
+        }
+    }
+
+    /**
+     * Records {@code span} from the beginning of the current trace until now, if the current trace is {@code kind}.
+     */
+    public synchronized void mark(final String kind, final String span) {
+        if (current != null && kind.equals(current.kind)) {
+            current.spans.add(new Span(span, current.startNanos, SystemClock.elapsedRealtimeNanos()));
+        }
+    }
+
+    public synchronized boolean isTracing(final String kind) {
+        return current != null && kind.equals(current.kind);
+    }
+
+    /**
+     * Removes the current trace to continue it in another process with {@link #resume}.
+     *
+     * @return the trace with its open spans, null without one
+     */
+    public synchronized Serializable handOff() {
+        Trace trace = current != null && current.kind != null ? current : null;
+        current = null;
+        return trace;
+    }
+
+    /**
+     * Continues a trace removed with {@link #handOff}, spans of an unclaimed trace started since its
+     * beginning are moved into it.
+     */
+    public synchronized void resume(final Serializable handedOff) {
+        if (!(handedOff instanceof Trace)) {
+            return;
+        }
+        Trace trace = (Trace) handedOff;
+        if (current != null && current.kind == null) {
+            for (Span span : current.spans) {
+                if (span.startNanos >= trace.startNanos) {
+                    trace.spans.add(span);
+                }
+            }
+            for (Map.Entry<String, Long> open : current.open.entrySet()) {
+                if (open.getValue() >= trace.startNanos) {
+                    trace.open.put(open.getKey(), open.getValue());
+                }
+            }
+        } else if (current != null) {
+            finish(false);
+        }
+        current = trace;
+    }
+
+    /**
+     * Completes the current trace, spans still open are dropped. An unclaimed trace is discarded.
+     */
+    public synchronized void finish(final boolean complete) {
+        if (current == null) {
+            return;
+        }
+        Trace trace = current;
+        current = null;
+        if (trace.kind == null) {
+            return;
+        }
+        trace.endNanos = SystemClock.elapsedRealtimeNanos();
+        trace.complete = complete;
+        Map<String, Object> map = trace.toMap();
+        add(map);
+        if (listener != null) {
+            listener.onTraceFinished(map);
+        }
+    }
+
+    /**
+     * Keeps a finished trace, e.g. one reported by the service process.
+     */
+    public synchronized void add(final Map<String, Object> trace) {
+        traces.addLast(trace);
+        while (traces.size() > MAX_TRACES) {
+            traces.removeFirst();
+        }
+    }
+
+    public synchronized void setListener(final Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return finished traces oldest first, span times in milliseconds relative to the trace start
+     */
+    public synchronized List<Map<String, Object>> getTraces() {
+        return new ArrayList<>(traces);
+    }
+
+    private static double toMillis(final long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private static final class Span implements Serializable {
+        final String name;
+        final long startNanos;
+        final long endNanos;
+
+        Span(String name, long startNanos, long endNanos) {
+            this.name = name;
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+        }
+    }
+
+    private static final class Trace implements Serializable {
+        final String kind;
+        final long startNanos;
+        final long startedAt;
+        final List<Span> spans = new ArrayList<>();
+        final Map<String, Long> open = new HashMap<>();
+        long endNanos;
+        boolean complete;
+
+        Trace(String kind, long startNanos, long startedAt) {
+            this.kind = kind;
+            this.startNanos = startNanos;
+            this.startedAt = startedAt;
+        }
+
+        Map<String, Object> toMap() {
+            List<Map<String, Object>> spanMaps = new ArrayList<>(spans.size());
+            for (Span span : spans) {
+                Map<String, Object> spanMap = new LinkedHashMap<>();
+                spanMap.put("name", span.name);
+                spanMap.put("start", toMillis(span.startNanos - startNanos));
+                spanMap.put("duration", toMillis(span.endNanos - span.startNanos));
+                spanMaps.add(spanMap);
+            }
+            Map<String, Object> map = new HashMap<>();
+            map.put("kind", kind);
+            map.put("startedAt", startedAt);
+            map.put("duration", toMillis(endNanos - startNanos));
+            map.put("complete", complete);
+            map.put("spans", spanMaps);
+            return map;
+        }
+    }
+}
@@ -12,9 +12,11 @@ import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.net.VpnService;
 import android.graphics.Color;
 import android.os.Build;
 import android.os.CountDownTimer;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Pair;
 
@@ -23,13 +25,18 @@ import androidx.core.app.ActivityCompat;
 import androidx.core.app.NotificationCompat;
 
 import dev.amirzr.flutter_v2ray_client.v2ray.interfaces.V2rayServicesListener;
+import dev.amirzr.flutter_v2ray_client.v2ray.services.Tun2socksSupervisor;
 import dev.amirzr.flutter_v2ray_client.v2ray.services.V2rayProxyOnlyService;
 import dev.amirzr.flutter_v2ray_client.v2ray.services.V2rayVPNService;
 import dev.amirzr.flutter_v2ray_client.v2ray.utils.AppConfigs;
 import dev.amirzr.flutter_v2ray_client.v2ray.utils.Utilities;
 import dev.amirzr.flutter_v2ray_client.v2ray.utils.V2rayConfig;
 
-import org.json.JSONObject;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import libv2ray.CoreCallbackHandler;
 import libv2ray.CoreController;
@@ -38,6 +45,9 @@ import libv2ray.V2RayProtector;
 
 public final class V2rayCoreManager {
     private static final int NOTIFICATION_ID = 1;
+    private static final long FIRST_DOWNLINK_POLL_INTERVAL = 50;
+    private static final long FIRST_DOWNLINK_POLL_TIMEOUT = 15000;
+    public static final String EVENT_SERVER_SWITCHED = "SERVER_SWITCHED";
     private volatile static V2rayCoreManager INSTANCE;
     public V2rayServicesListener v2rayServicesListener = null;
     private CoreController coreController;
@@ -45,8 +55,16 @@ public final class V2rayCoreManager {
     private boolean isLibV2rayCoreInitialized = false;
     private CountDownTimer countDownTimer;
     private int seconds, minutes, hours;
-    private long totalDownload, totalUpload, uploadSpeed, downloadSpeed;
+    private volatile long totalDownload, totalUpload;
+    private long uploadSpeed, downloadSpeed;
     private String SERVICE_DURATION = "00:00:00";
+    private String connectedServerFingerprint;
+    private V2rayFailoverMonitor failoverMonitor;
+    private List<String> trafficStaticsTags = new ArrayList<>();
+    private volatile boolean isRestartingLoop = false;
+    // downlink bytes read (and so reset in the core) by the first downlink poll, counted on the next tick
+    private final AtomicLong polledDownlink = new AtomicLong();
+    private V2rayConfig connectedConfig;
 
     public static V2rayCoreManager getInstance() {
         if (INSTANCE == null) {
@@ -77,24 +95,22 @@ public final class V2rayCoreManager {
                     hours = 0;
                 }
                 if (enable_traffic_statics) {
-                    downloadSpeed = (coreController != null ? coreController.queryStats("block", "downlink") : 0)
-                            + (coreController != null ? coreController.queryStats("proxy", "downlink") : 0);
-                    uploadSpeed = (coreController != null ? coreController.queryStats("block", "uplink") : 0)
-                            + (coreController != null ? coreController.queryStats("proxy", "uplink") : 0);
+                    downloadSpeed = polledDownlink.getAndSet(0);
+                    uploadSpeed = 0;
+                    for (String tag : trafficStaticsTags) {
+                        downloadSpeed += coreController != null ? coreController.queryStats(tag, "downlink") : 0;
+                        uploadSpeed += coreController != null ? coreController.queryStats(tag, "uplink") : 0;
+                    }
                     totalDownload = totalDownload + downloadSpeed;
+                    if (downloadSpeed > 0) {
+                        // only still tracing when the first downlink poll gave up
+                        markFirstDownlink();
+                    }
                     totalUpload = totalUpload + uploadSpeed;
                 }
                 SERVICE_DURATION = Utilities.convertIntToTwoDigit(hours) + ":" + Utilities.convertIntToTwoDigit(minutes)
                         + ":" + Utilities.convertIntToTwoDigit(seconds);
-                String packageName = context.getPackageName();
-                Intent connection_info_intent = new Intent(packageName + ".V2RAY_CONNECTION_INFO");
-                connection_info_intent.setPackage(packageName);
-                connection_info_intent.putExtra("STATE", V2rayCoreManager.getInstance().V2RAY_STATE);
-                connection_info_intent.putExtra("DURATION", SERVICE_DURATION);
-                connection_info_intent.putExtra("UPLOAD_SPEED", uploadSpeed);
-                connection_info_intent.putExtra("DOWNLOAD_SPEED", downloadSpeed);
-                connection_info_intent.putExtra("UPLOAD_TRAFFIC", totalUpload);
-                connection_info_intent.putExtra("DOWNLOAD_TRAFFIC", totalDownload);
+                Intent connection_info_intent = createConnectionInfoIntent(context.getPackageName());
                 try {
                     context.sendBroadcast(connection_info_intent);
                 } catch (Exception e) {
@@ -110,17 +126,24 @@ public final class V2rayCoreManager {
         }.start();
     }
 
-    public void setUpListener(Service targetService) {
+    /**
+     * One-time core environment setup: Go runtime and asset path, socket protector and controller.
+     * Later calls return immediately, so services created afterwards only rebind their listener.
+     */
+    public synchronized boolean initCoreEnvironment(final Context context) {
+        if (coreController != null) {
+            return true;
+        }
         try {
-            v2rayServicesListener = (V2rayServicesListener) targetService;
-            Libv2ray.initCoreEnv(getUserAssetsPath(targetService.getApplicationContext()), "");
+            Libv2ray.initCoreEnv(getUserAssetsPath(context.getApplicationContext()), "");
 
             // Register Android VPN socket protector with libv2ray (Go)
             Libv2ray.useProtector(new V2RayProtector() {
                 @Override
                 public boolean protect(long fd) {
-                    if (v2rayServicesListener != null) {
-                        return v2rayServicesListener.onProtect((int) fd);
+                    V2rayServicesListener listener = v2rayServicesListener;
+                    if (listener != null) {
+                        return listener.onProtect((int) fd);
                     }
                     return true;
                 }
@@ -136,6 +159,10 @@ public final class V2rayCoreManager {
 
                 @Override
                 public long shutdown() {
+                    if (isRestartingLoop) {
+                        // the core loop is restarted behind the same tun interface, keep the service up
+                        return 0;
+                    }
                     if (v2rayServicesListener == null) {
                         Log.e(V2rayCoreManager.class.getSimpleName(), "shutdown failed => can`t find initial service.");
                         return -1;
@@ -152,7 +179,7 @@ public final class V2rayCoreManager {
 
                 @Override
                 public long startup() {
-                    if (v2rayServicesListener != null) {
+                    if (v2rayServicesListener != null && !isRestartingLoop) {
                         try {
                             v2rayServicesListener.startService();
                         } catch (Exception e) {
@@ -163,7 +190,48 @@ public final class V2rayCoreManager {
                     return 0;
                 }
             });
-            isLibV2rayCoreInitialized = true;
+            Log.i(V2rayCoreManager.class.getSimpleName(), "initCoreEnvironment => core environment ready.");
+            return true;
+        } catch (Exception e) {
+            Log.e(V2rayCoreManager.class.getSimpleName(), "initCoreEnvironment failed => ", e);
+            coreController = null;
+            return false;
+        }
+    }
+
+    public void setUpListener(Service targetService) {
+        try {
+            V2rayConnectTracer.getInstance().start("setUpListener");
+            v2rayServicesListener = (V2rayServicesListener) targetService;
+            final Context context = targetService.getApplicationContext();
+            // traces finish in this process, the plugin process keeps them for getConnectTraces
+            V2rayConnectTracer.getInstance().setListener(trace -> {
+                String packageName = context.getPackageName();
+                Intent trace_intent = new Intent(packageName + ".V2RAY_CONNECT_TRACE");
+                trace_intent.setPackage(packageName);
+                trace_intent.putExtra("TRACE", new HashMap<>(trace));
+                try {
+                    context.sendBroadcast(trace_intent);
+                } catch (Exception e) {
+                    Log.w("V2rayCoreManager", "Failed to send connect trace broadcast", e);
+                }
+            });
+            // the plugin process owns the quality store
+            V2rayServerQualityStore.getInstance().setForwarder((fingerprint, success, latency) -> {
+                String packageName = context.getPackageName();
+                Intent quality_intent = new Intent(packageName + ".V2RAY_SERVER_QUALITY");
+                quality_intent.setPackage(packageName);
+                quality_intent.putExtra("FINGERPRINT", fingerprint);
+                quality_intent.putExtra("SUCCESS", success);
+                quality_intent.putExtra("LATENCY", latency);
+                try {
+                    context.sendBroadcast(quality_intent);
+                } catch (Exception e) {
+                    Log.w("V2rayCoreManager", "Failed to send server quality broadcast", e);
+                }
+            });
+            isLibV2rayCoreInitialized = initCoreEnvironment(targetService);
+            V2rayConnectTracer.getInstance().end("setUpListener");
             SERVICE_DURATION = "00:00:00";
             seconds = 0;
             minutes = 0;
@@ -171,8 +239,9 @@ public final class V2rayCoreManager {
             uploadSpeed = 0;
             downloadSpeed = 0;
             totalDownload = 0;
+            polledDownlink.set(0);
             totalUpload = 0;
-            Log.e(V2rayCoreManager.class.getSimpleName(), "setUpListener => new initialize from "
+            Log.e(V2rayCoreManager.class.getSimpleName(), "setUpListener => bound to "
                     + v2rayServicesListener.getService().getClass().getSimpleName());
         } catch (Exception e) {
             Log.e(V2rayCoreManager.class.getSimpleName(), "setUpListener failed => ", e);
@@ -197,16 +266,22 @@ public final class V2rayCoreManager {
                 Log.e(V2rayCoreManager.class.getSimpleName(), "startCore failed => coreController is null.");
                 return false;
             }
-            // Configure protector target server and IP family preference before starting
-            // core
-            try {
-                String server = v2rayConfig.CONNECTED_V2RAY_SERVER_ADDRESS + ":"
-                        + v2rayConfig.CONNECTED_V2RAY_SERVER_PORT;
-                Libv2ray.setProtectorServer(server, false);
-            } catch (Exception ignored) {
-            }
+            setProtectorServer(v2rayConfig);
+            connectedServerFingerprint = Utilities.getOutboundFingerprint(v2rayConfig.V2RAY_FULL_JSON_CONFIG);
+            V2rayConnectTracer.getInstance().start("startLoop");
             coreController.startLoop(v2rayConfig.V2RAY_FULL_JSON_CONFIG);
+            V2rayConnectTracer.getInstance().end("startLoop");
             V2RAY_STATE = AppConfigs.V2RAY_STATES.V2RAY_CONNECTED;
+            if (v2rayConfig.ENABLE_TRAFFIC_STATICS) {
+                watchFirstDownlink(v2rayConfig.TRAFFIC_STATICS_TAGS);
+            } else {
+                // without traffic statics the first downlink can't be observed
+                V2rayConnectTracer.getInstance().finish(true);
+            }
+            trafficStaticsTags = v2rayConfig.TRAFFIC_STATICS_TAGS;
+            connectedConfig = v2rayConfig;
+            V2rayServerQualityStore.getInstance().recordSession(connectedServerFingerprint, true);
+            startFailoverMonitor(v2rayConfig);
             if (isV2rayCoreRunning()) {
                 // Always try to show notification, but handle failures gracefully
                 // VPN will continue working even if notification fails
@@ -214,12 +289,207 @@ public final class V2rayCoreManager {
             }
         } catch (Exception e) {
             Log.e(V2rayCoreManager.class.getSimpleName(), "startCore failed =>", e);
+            V2rayConnectTracer.getInstance().finish(false);
+            V2rayServerQualityStore.getInstance().recordSession(connectedServerFingerprint, false);
             return false;
         }
         return true;
     }
 
+    /**
+     * Polls the downlink counters every {@value #FIRST_DOWNLINK_POLL_INTERVAL}ms until the first bytes
+     * arrive, so the firstDownlink span is not quantized to the 1s statics tick.
+     */
+    private void watchFirstDownlink(final List<String> tags) {
+        final CoreController controller = coreController;
+        Thread poll = new Thread(() -> {
+            long deadline = SystemClock.elapsedRealtime() + FIRST_DOWNLINK_POLL_TIMEOUT;
+            while (V2rayConnectTracer.getInstance().isTracing(V2rayConnectTracer.CONNECT)
+                    && SystemClock.elapsedRealtime() < deadline) {
+                try {
+                    Thread.sleep(FIRST_DOWNLINK_POLL_INTERVAL);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (controller != coreController || !isV2rayCoreRunning()) {
+                    return;
+                }
+                long downlink = 0;
+                for (String tag : tags) {
+                    downlink += controller.queryStats(tag, "downlink");
+                }
+                if (downlink > 0) {
+                    polledDownlink.addAndGet(downlink);
+                    markFirstDownlink();
+                    return;
+                }
+            }
+        }, "V2rayFirstDownlink");
+        poll.setDaemon(true);
+        poll.start();
+    }
+
+    private void markFirstDownlink() {
+        V2rayConnectTracer tracer = V2rayConnectTracer.getInstance();
+        synchronized (tracer) {
+            if (tracer.isTracing(V2rayConnectTracer.CONNECT)) {
+                tracer.mark(V2rayConnectTracer.CONNECT, "firstDownlink");
+                tracer.finish(true);
+            }
+        }
+    }
+
+    /**
+     * Replaces the running core loop with {@code v2rayConfig} while the service, its tun interface and
+     * tun2socks stay up, so only connections in flight are dropped. The tun settings (routes, dns, apps,
+     * ports) of both configs have to be the same.
+     *
+     * @return switch time in milliseconds, -1 if the core is not running, the new config needs other
+     * tunnel settings (see {@link Utilities#isSameTunnel}) or the new core failed to start, the
+     * previous server is then started again behind the tunnel
+     */
+    public synchronized long switchServer(final V2rayConfig v2rayConfig) {
+        if (!isV2rayCoreRunning() || coreController == null || v2rayServicesListener == null) {
+            Log.w(V2rayCoreManager.class.getSimpleName(), "switchServer skipped => core not running.");
+            return -1;
+        }
+        if (connectedConfig == null || !Utilities.isSameTunnel(connectedConfig, v2rayConfig)) {
+            Log.w(V2rayCoreManager.class.getSimpleName(),
+                    "switchServer skipped => the tunnel settings (ports, mtu, routes, apps, dns) changed.");
+            return -1;
+        }
+        long start = SystemClock.elapsedRealtime();
+        final V2rayConfig previous = connectedConfig;
+        isRestartingLoop = true;
+        try {
+            coreController.stopLoop();
+            setProtectorServer(v2rayConfig);
+            connectedServerFingerprint = Utilities.getOutboundFingerprint(v2rayConfig.V2RAY_FULL_JSON_CONFIG);
+            coreController.startLoop(v2rayConfig.V2RAY_FULL_JSON_CONFIG);
+        } catch (Exception e) {
+            Log.e(V2rayCoreManager.class.getSimpleName(), "switchServer failed =>", e);
+            V2rayServerQualityStore.getInstance().recordSession(connectedServerFingerprint, false);
+            stopFailoverMonitor();
+            // the tunnel is still up, bring the previous server back behind it
+            try {
+                setProtectorServer(previous);
+                connectedServerFingerprint = Utilities.getOutboundFingerprint(previous.V2RAY_FULL_JSON_CONFIG);
+                coreController.startLoop(previous.V2RAY_FULL_JSON_CONFIG);
+                startFailoverMonitor(previous);
+                Log.i(V2rayCoreManager.class.getSimpleName(), "switchServer => previous server restored.");
+            } catch (Exception restoreError) {
+                Log.e(V2rayCoreManager.class.getSimpleName(), "switchServer can`t restore the previous server =>",
+                        restoreError);
+            }
+            return -1;
+        } finally {
+            isRestartingLoop = false;
+        }
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        trafficStaticsTags = v2rayConfig.TRAFFIC_STATICS_TAGS;
+        connectedConfig = v2rayConfig;
+        V2rayServerQualityStore.getInstance().recordSession(connectedServerFingerprint, true);
+        Log.i(V2rayCoreManager.class.getSimpleName(), "switchServer success => " + elapsed + "ms");
+        startFailoverMonitor(v2rayConfig);
+        showNotification(v2rayConfig);
+        sendStatusEvent(EVENT_SERVER_SWITCHED, String.valueOf(elapsed));
+        return elapsed;
+    }
+
+    /**
+     * Restarts the core loop with the running config behind the same tun interface and tun2socks,
+     * closing every outbound connection at once instead of waiting for dead sockets to time out,
+     * e.g. after a network handover.
+     *
+     * @return restart time in milliseconds, -1 if the core is not running or failed to start again
+     * (the tunnel is then left without a core and should be restarted)
+     */
+    public synchronized long restartCore() {
+        if (!isV2rayCoreRunning() || coreController == null || connectedConfig == null) {
+            Log.w(V2rayCoreManager.class.getSimpleName(), "restartCore skipped => core not running.");
+            return -1;
+        }
+        long start = SystemClock.elapsedRealtime();
+        isRestartingLoop = true;
+        try {
+            coreController.stopLoop();
+            coreController.startLoop(connectedConfig.V2RAY_FULL_JSON_CONFIG);
+        } catch (Exception e) {
+            Log.e(V2rayCoreManager.class.getSimpleName(), "restartCore failed =>", e);
+            return -1;
+        } finally {
+            isRestartingLoop = false;
+        }
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        Log.i(V2rayCoreManager.class.getSimpleName(), "restartCore success => " + elapsed + "ms");
+        return elapsed;
+    }
+
+    /**
+     * Stops the core loop while the service stays up, so a reconnect can set the tunnel up again and
+     * start the core with {@link #startCore}.
+     */
+    public synchronized void stopLoop() {
+        stopFailoverMonitor();
+        if (countDownTimer != null) {
+            countDownTimer.cancel();
+        }
+        if (!isV2rayCoreRunning() || coreController == null) {
+            return;
+        }
+        isRestartingLoop = true;
+        try {
+            coreController.stopLoop();
+        } catch (Exception e) {
+            Log.e(V2rayCoreManager.class.getSimpleName(), "stopLoop failed =>", e);
+        } finally {
+            isRestartingLoop = false;
+        }
+    }
+
+    /**
+     * @return the config the core runs, null before the first connect
+     */
+    public V2rayConfig getConnectedConfig() {
+        return connectedConfig;
+    }
+
+    /**
+     * @return uplink and downlink bytes since the service started, as sampled by the statics timer
+     */
+    public long[] getTotalTraffic() {
+        return new long[] { totalUpload, totalDownload };
+    }
+
+    private void setProtectorServer(final V2rayConfig v2rayConfig) {
+        // Configure protector target server and IP family preference before starting core
+        try {
+            String server = v2rayConfig.CONNECTED_V2RAY_SERVER_ADDRESS + ":"
+                    + v2rayConfig.CONNECTED_V2RAY_SERVER_PORT;
+            Libv2ray.setProtectorServer(server, false);
+        } catch (Exception ignored) {
+        }
+    }
+
+    private void startFailoverMonitor(final V2rayConfig v2rayConfig) {
+        // a monitor left running would keep failing over to its own candidates
+        stopFailoverMonitor();
+        if (V2rayFailoverMonitor.isEnabled(v2rayConfig)) {
+            failoverMonitor = new V2rayFailoverMonitor(v2rayServicesListener.getService(), v2rayConfig,
+                    connectedServerFingerprint);
+            failoverMonitor.start();
+        }
+    }
+
+    private void stopFailoverMonitor() {
+        if (failoverMonitor != null) {
+            failoverMonitor.stop();
+            failoverMonitor = null;
+        }
+    }
+
     public void stopCore() {
+        stopFailoverMonitor();
         try {
             // Safely cancel notification - handle cases where service might be null
             if (v2rayServicesListener != null && v2rayServicesListener.getService() != null) {
@@ -236,9 +506,14 @@ public final class V2rayCoreManager {
         try {
             if (isV2rayCoreRunning()) {
                 if (coreController != null) {
+                    V2rayConnectTracer.getInstance().start("stopLoop");
                     coreController.stopLoop();
+                    V2rayConnectTracer.getInstance().end("stopLoop");
                 }
                 v2rayServicesListener.stopService();
+                if (V2rayConnectTracer.getInstance().isTracing(V2rayConnectTracer.DISCONNECT)) {
+                    V2rayConnectTracer.getInstance().finish(true);
+                }
                 Log.e(V2rayCoreManager.class.getSimpleName(), "stopCore success => v2ray core stopped.");
             } else {
                 Log.e(V2rayCoreManager.class.getSimpleName(), "stopCore failed => v2ray core not running.");
@@ -259,15 +534,7 @@ public final class V2rayCoreManager {
         downloadSpeed = 0;
         if (v2rayServicesListener != null) {
             Context context = v2rayServicesListener.getService().getApplicationContext();
-            String packageName = context.getPackageName();
-            Intent connection_info_intent = new Intent(packageName + ".V2RAY_CONNECTION_INFO");
-            connection_info_intent.setPackage(packageName);
-            connection_info_intent.putExtra("STATE", V2rayCoreManager.getInstance().V2RAY_STATE);
-            connection_info_intent.putExtra("DURATION", SERVICE_DURATION);
-            connection_info_intent.putExtra("UPLOAD_SPEED", uploadSpeed);
-            connection_info_intent.putExtra("DOWNLOAD_SPEED", downloadSpeed);
-            connection_info_intent.putExtra("UPLOAD_TRAFFIC", totalUpload);
-            connection_info_intent.putExtra("DOWNLOAD_TRAFFIC", totalDownload);
+            Intent connection_info_intent = createConnectionInfoIntent(context.getPackageName());
             try {
                 context.sendBroadcast(connection_info_intent);
             } catch (Exception e) {
@@ -279,6 +546,40 @@ public final class V2rayCoreManager {
         }
     }
 
+    private Intent createConnectionInfoIntent(final String packageName) {
+        Intent connection_info_intent = new Intent(packageName + ".V2RAY_CONNECTION_INFO");
+        connection_info_intent.setPackage(packageName);
+        connection_info_intent.putExtra("STATE", V2rayCoreManager.getInstance().V2RAY_STATE);
+        connection_info_intent.putExtra("DURATION", SERVICE_DURATION);
+        connection_info_intent.putExtra("UPLOAD_SPEED", uploadSpeed);
+        connection_info_intent.putExtra("DOWNLOAD_SPEED", downloadSpeed);
+        connection_info_intent.putExtra("UPLOAD_TRAFFIC", totalUpload);
+        connection_info_intent.putExtra("DOWNLOAD_TRAFFIC", totalDownload);
+        // tun2socks runs in this process, the plugin process only sees its stats here
+        connection_info_intent.putExtra("TUN2SOCKS_STATS", new HashMap<>(Tun2socksSupervisor.getLatestStats()));
+        return connection_info_intent;
+    }
+
+    /**
+     * Emits a one-off status update carrying {@code event} and its {@code detail}, e.g. a failover switch.
+     */
+    public void sendStatusEvent(final String event, final String detail) {
+        V2rayServicesListener listener = v2rayServicesListener;
+        if (listener == null || listener.getService() == null) {
+            Log.w("V2rayCoreManager", "Can`t send status event " + event + " => no running service");
+            return;
+        }
+        Context context = listener.getService().getApplicationContext();
+        Intent connection_info_intent = createConnectionInfoIntent(context.getPackageName());
+        connection_info_intent.putExtra("EVENT", event);
+        connection_info_intent.putExtra("EVENT_DETAIL", detail);
+        try {
+            context.sendBroadcast(connection_info_intent);
+        } catch (Exception e) {
+            Log.w("V2rayCoreManager", "Failed to send status event broadcast", e);
+        }
+    }
+
     private String createNotificationChannelID(String appName) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             String channelId = "A_FLUTTER_V2RAY_SERVICE_CH_ID"; // default and constant ID
@@ -417,33 +718,78 @@ public final class V2rayCoreManager {
         return false;
     }
 
+    /**
+     * Keeps {@code socket} out of the VPN interface when the active service is a VPN service.
+     */
+    public boolean protect(final Socket socket) {
+        V2rayServicesListener listener = v2rayServicesListener;
+        if (listener != null && listener.getService() instanceof VpnService) {
+            return ((VpnService) listener.getService()).protect(socket);
+        }
+        return true;
+    }
+
     public Long getConnectedV2rayServerDelay() {
+        return getConnectedV2rayServerDelay(AppConfigs.DELAY_URL);
+    }
+
+    public Long getConnectedV2rayServerDelay(final String url) {
+        long delay;
         try {
             if (coreController == null)
                 return -1L;
-            return coreController.measureDelay(AppConfigs.DELAY_URL);
+            delay = coreController.measureDelay(url);
         } catch (Exception e) {
-            return -1L;
+            delay = -1L;
         }
+        V2rayServerQualityStore.getInstance().recordProbe(connectedServerFingerprint, delay, true);
+        return delay;
     }
 
     public Long getV2rayServerDelay(final String config, final String url) {
+        return getV2rayServerDelay(config, url, AppConfigs.DELAY_PROBE_TYPES.HTTP);
+    }
+
+    public Long getV2rayServerDelay(final String config, final String url,
+            final AppConfigs.DELAY_PROBE_TYPES type) {
+        final V2rayProbeConfig probeConfig = V2rayProbeConfig.of(config);
         try {
-            try {
-                JSONObject config_json = new JSONObject(config);
-                JSONObject new_routing_json = config_json.getJSONObject("routing");
-                new_routing_json.remove("rules");
-                config_json.remove("routing");
-                config_json.put("routing", new_routing_json);
-                return Libv2ray.measureOutboundDelay(config_json.toString(), url);
-            } catch (Exception json_error) {
-                Log.e("getV2rayServerDelay", json_error.toString());
-                return Libv2ray.measureOutboundDelay(config, url);
-            }
+            return V2rayDelayCache.getInstance().get(
+                    probeConfig.fingerprint != null ? probeConfig.fingerprint + "|" + type + "|" + url : null,
+                    () -> measureV2rayServerDelay(probeConfig, url, type));
         } catch (Exception e) {
             Log.e("getV2rayServerDelayCore", e.toString());
             return -1L;
         }
     }
 
+    /**
+     * Probes {@code config} without going through {@link V2rayDelayCache}.
+     */
+    public Long measureV2rayServerDelay(final String config, final String url,
+            final AppConfigs.DELAY_PROBE_TYPES type) {
+        return measureV2rayServerDelay(V2rayProbeConfig.of(config), url, type);
+    }
+
+    /**
+     * TCP and TLS probes talk to the server directly, HTTP probes run the compiled outbound.
+     */
+    private Long measureV2rayServerDelay(final V2rayProbeConfig probeConfig, final String url,
+            final AppConfigs.DELAY_PROBE_TYPES type) {
+        long delay;
+        if (type == AppConfigs.DELAY_PROBE_TYPES.TCP || type == AppConfigs.DELAY_PROBE_TYPES.TLS) {
+            delay = V2raySocketProbe.measure(probeConfig, type);
+        } else {
+            try {
+                delay = Libv2ray.measureOutboundDelay(probeConfig.config, url);
+            } catch (Exception e) {
+                Log.e("getV2rayServerDelayCore", e.toString());
+                delay = -1L;
+            }
+        }
+        V2rayServerQualityStore.getInstance().recordProbe(probeConfig.fingerprint, delay,
+                type == AppConfigs.DELAY_PROBE_TYPES.HTTP);
+        return delay;
+    }
+
 }
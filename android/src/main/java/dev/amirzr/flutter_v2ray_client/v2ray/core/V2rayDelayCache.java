@@ -0,0 +1,144 @@
+package dev.amirzr.flutter_v2ray_client.v2ray.core;
+
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TTL/LRU cache for outbound delay results.
+ * Concurrent lookups of the same key share a single in-flight probe. Failed probes are not cached,
+ * so a server that recovers is measured again on the next lookup.
+ */
+public final class V2rayDelayCache {
+    public static final long DEFAULT_TTL_MILLIS = 30_000L;
+    public static final int DEFAULT_MAX_ENTRIES = 512;
+    private volatile static V2rayDelayCache INSTANCE;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentHashMap<String, FutureTask<Long>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong sharedProbes = new AtomicLong();
+    private volatile long ttlMillis = DEFAULT_TTL_MILLIS;
+    private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    private V2rayDelayCache() {
+    }
+
+    public static V2rayDelayCache getInstance() {
+        if (INSTANCE == null) {
+            synchronized (V2rayDelayCache.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new V2rayDelayCache();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * @param ttlMillis  how long a successful delay is reused, 0 disables caching (probes are still de-duplicated)
+     * @param maxEntries upper bound of cached results, least recently used ones are evicted first
+     */
+    public void configure(final long ttlMillis, final int maxEntries) {
+        this.ttlMillis = Math.max(0, ttlMillis);
+        this.maxEntries = Math.max(1, maxEntries);
+        synchronized (entries) {
+            trimToSize();
+        }
+    }
+
+    /**
+     * Returns the cached delay of {@code key} or runs {@code probe} to measure it.
+     * A null key bypasses the cache.
+     */
+    public long get(final String key, final Callable<Long> probe) throws Exception {
+        if (key == null) {
+            return probe.call();
+        }
+        final long now = SystemClock.elapsedRealtime();
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (now - entry.measuredAt < ttlMillis) {
+                    hits.incrementAndGet();
+                    return entry.delay;
+                }
+                entries.remove(key);
+            }
+        }
+        misses.incrementAndGet();
+
+        FutureTask<Long> task = new FutureTask<>(probe);
+        FutureTask<Long> running = inFlight.putIfAbsent(key, task);
+        if (running != null) {
+            sharedProbes.incrementAndGet();
+            return await(running);
+        }
+        try {
+            task.run();
+            long delay = await(task);
+            if (ttlMillis > 0 && delay >= 0) {
+                synchronized (entries) {
+                    entries.put(key, new Entry(delay, SystemClock.elapsedRealtime()));
+                    trimToSize();
+                }
+            }
+            return delay;
+        } finally {
+            inFlight.remove(key, task);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new HashMap<>();
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("shared", sharedProbes.get());
+        synchronized (entries) {
+            stats.put("size", (long) entries.size());
+        }
+        stats.put("ttl", ttlMillis);
+        stats.put("maxEntries", (long) maxEntries);
+        return stats;
+    }
+
+    private void trimToSize() {
+        while (entries.size() > maxEntries) {
+            entries.remove(entries.keySet().iterator().next());
+        }
+    }
+
+    private static long await(final FutureTask<Long> task) throws Exception {
+        try {
+            Long delay = task.get();
+            return delay != null ? delay : -1L;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    private static final class Entry {
+        final long delay;
+        final long measuredAt;
+
+        Entry(long delay, long measuredAt) {
+            this.delay = delay;
+            this.measuredAt = measuredAt;
+        }
+    }
+}
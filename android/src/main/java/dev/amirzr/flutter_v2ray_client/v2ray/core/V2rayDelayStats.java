@@ -0,0 +1,71 @@
+package dev.amirzr.flutter_v2ray_client.v2ray.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Summary of several delay samples of one server. Samples of -1 count as lost.
+ * Latency fields are -1 when every sample was lost.
+ */
+public final class V2rayDelayStats {
+    public final int samples;
+    public final long min;
+    public final double median;
+    public final long p90;
+    public final double jitter;
+    public final double loss;
+
+    private V2rayDelayStats(int samples, long min, double median, long p90, double jitter, double loss) {
+        this.samples = samples;
+        this.min = min;
+        this.median = median;
+        this.p90 = p90;
+        this.jitter = jitter;
+        this.loss = loss;
+    }
+
+    public static V2rayDelayStats of(final long[] delays) {
+        long[] ok = new long[delays.length];
+        int count = 0;
+        for (long delay : delays) {
+            if (delay >= 0) {
+                ok[count++] = delay;
+            }
+        }
+        double loss = delays.length == 0 ? 1.0 : (double) (delays.length - count) / delays.length;
+        if (count == 0) {
+            return new V2rayDelayStats(delays.length, -1, -1, -1, -1, loss);
+        }
+        ok = Arrays.copyOf(ok, count);
+        Arrays.sort(ok);
+
+        double median = count % 2 == 1 ? ok[count / 2] : (ok[count / 2 - 1] + ok[count / 2]) / 2.0;
+        // nearest-rank percentile
+        long p90 = ok[(int) Math.ceil(0.9 * count) - 1];
+
+        double mean = 0;
+        for (long delay : ok) {
+            mean += delay;
+        }
+        mean /= count;
+        double variance = 0;
+        for (long delay : ok) {
+            variance += (delay - mean) * (delay - mean);
+        }
+        double jitter = Math.sqrt(variance / count);
+
+        return new V2rayDelayStats(delays.length, ok[0], median, p90, jitter, loss);
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("samples", samples);
+        map.put("min", min);
+        map.put("median", median);
+        map.put("p90", p90);
+        map.put("jitter", jitter);
+        map.put("loss", loss);
+        return map;
+    }
+}
@@ -0,0 +1,216 @@
+package dev.amirzr.flutter_v2ray_client.v2ray.core;
+
+import android.util.Log;
+
+import dev.amirzr.flutter_v2ray_client.v2ray.utils.AppConfigs;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Measures outbound delay of many server configs at once on a bounded worker pool
+ * instead of one method-channel call (and one thread) per server.
+ */
+public final class V2rayDelayTester {
+    private static final String TAG = "V2rayDelayTester";
+    public static final int DEFAULT_CONCURRENCY = 8;
+    public static final int MAX_CONCURRENCY = 32;
+    public static final int DEFAULT_SAMPLES = 5;
+    public static final int MAX_SAMPLES = 20;
+    public static final long DEFAULT_SAMPLE_INTERVAL_MILLIS = 200L;
+
+    private V2rayDelayTester() {
+    }
+
+    public interface DelayListener {
+        /**
+         * Called once per config, from a probe worker or the batch thread.
+         */
+        void onDelay(int index, long delay);
+    }
+
+    /**
+     * Probes every config and waits for the whole batch.
+     *
+     * @return delay in milliseconds keyed by the index of the config in {@code configs}, -1 on failure
+     * @see Batch
+     */
+    public static Map<Integer, Long> getServerDelays(final List<String> configs, final String url,
+            final AppConfigs.DELAY_PROBE_TYPES type, final int concurrency, final long timeoutMillis) {
+        return collect(new Batch(configs, url, type, concurrency, timeoutMillis));
+    }
+
+    /**
+     * Like {@link #getServerDelays}, but probes every config fresh instead of reading {@link V2rayDelayCache},
+     * e.g. to pick a replacement for a server that may have just died.
+     */
+    public static Map<Integer, Long> measureServerDelays(final List<String> configs, final String url,
+            final AppConfigs.DELAY_PROBE_TYPES type, final int concurrency, final long timeoutMillis) {
+        return collect(new Batch(configs, url, type, concurrency, timeoutMillis, false));
+    }
+
+    private static Map<Integer, Long> collect(final Batch batch) {
+        final Map<Integer, Long> delays = new TreeMap<>();
+        batch.run((index, delay) -> {
+            synchronized (delays) {
+                delays.put(index, delay);
+            }
+        });
+        return delays;
+    }
+
+    /**
+     * Takes {@code samples} uncached delay samples of one config, {@code intervalMillis} apart.
+     * If interrupted, the statistics cover the samples taken so far.
+     */
+    public static V2rayDelayStats getServerDelayStats(final String config, final String url,
+            final AppConfigs.DELAY_PROBE_TYPES type, final int samples, final long intervalMillis) {
+        final long[] delays = new long[Math.max(1, Math.min(samples, MAX_SAMPLES))];
+        int taken = 0;
+        try {
+            for (; taken < delays.length; taken++) {
+                if (taken > 0 && intervalMillis > 0) {
+                    Thread.sleep(intervalMillis);
+                }
+                delays[taken] = V2rayCoreManager.getInstance().measureV2rayServerDelay(config, url, type);
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "getServerDelayStats interrupted after " + taken + " samples");
+            Thread.currentThread().interrupt();
+        }
+        return V2rayDelayStats.of(Arrays.copyOf(delays, taken));
+    }
+
+    /**
+     * One run of {@link V2rayCoreManager#getV2rayServerDelay} (or the uncached
+     * {@link V2rayCoreManager#measureV2rayServerDelay}) over a list of configs using at most
+     * {@code concurrency} worker threads. Results are reported as soon as each probe completes.
+     */
+    public static final class Batch {
+        private final List<String> configs;
+        private final String url;
+        private final AppConfigs.DELAY_PROBE_TYPES type;
+        private final int threads;
+        private final long timeoutMillis;
+        private final boolean cached;
+        private final AtomicIntegerArray reported;
+        private final AtomicInteger remaining;
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private volatile boolean cancelled = false;
+        private volatile ExecutorService pool;
+
+        /**
+         * @param configs       full v2ray json configs to probe
+         * @param url           url used for the delay test
+         * @param type          probe used for every config
+         * @param concurrency   number of probes running at the same time (clamped to 1..MAX_CONCURRENCY)
+         * @param timeoutMillis deadline for the whole batch, probes still pending after it report -1
+         *                      (0 or less waits for every probe)
+         */
+        public Batch(final List<String> configs, final String url, final AppConfigs.DELAY_PROBE_TYPES type,
+                final int concurrency, final long timeoutMillis) {
+            this(configs, url, type, concurrency, timeoutMillis, true);
+        }
+
+        /**
+         * @param cached false probes every config even if {@link V2rayDelayCache} holds a result
+         */
+        public Batch(final List<String> configs, final String url, final AppConfigs.DELAY_PROBE_TYPES type,
+                final int concurrency, final long timeoutMillis, final boolean cached) {
+            this.configs = configs;
+            this.url = url;
+            this.type = type;
+            this.threads = Math.max(1, Math.min(Math.min(concurrency, MAX_CONCURRENCY),
+                    configs != null ? configs.size() : 0));
+            this.timeoutMillis = timeoutMillis;
+            this.cached = cached;
+            this.reported = new AtomicIntegerArray(configs != null ? configs.size() : 0);
+            this.remaining = new AtomicInteger(reported.length());
+        }
+
+        /**
+         * Runs the batch on the calling thread until every config is reported, the deadline
+         * passes or {@link #cancel()} is called. After a cancel no further results are reported.
+         */
+        public void run(final DelayListener listener) {
+            if (reported.length() == 0) {
+                return;
+            }
+            pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(), new ProbeThreadFactory());
+            try {
+                for (int i = 0; i < configs.size(); i++) {
+                    final int index = i;
+                    final String config = configs.get(i);
+                    pool.execute(() -> {
+                        if (cancelled) {
+                            return;
+                        }
+                        long delay = cached
+                                ? V2rayCoreManager.getInstance().getV2rayServerDelay(config, url, type)
+                                : V2rayCoreManager.getInstance().measureV2rayServerDelay(config, url, type);
+                        report(listener, index, delay);
+                    });
+                }
+                if (timeoutMillis > 0) {
+                    finished.await(timeoutMillis, TimeUnit.MILLISECONDS);
+                } else {
+                    finished.await();
+                }
+            } catch (InterruptedException e) {
+                Log.w(TAG, "delay batch interrupted", e);
+                Thread.currentThread().interrupt();
+            } finally {
+                pool.shutdownNow();
+            }
+            // deadline reached or interrupted: report every probe that has not finished as failed
+            for (int i = 0; i < reported.length(); i++) {
+                report(listener, i, -1L);
+            }
+        }
+
+        public void cancel() {
+            cancelled = true;
+            finished.countDown();
+            ExecutorService running = pool;
+            if (running != null) {
+                running.shutdownNow();
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void report(final DelayListener listener, final int index, final long delay) {
+            if (cancelled || !reported.compareAndSet(index, 0, 1)) {
+                return;
+            }
+            listener.onDelay(index, delay);
+            if (remaining.decrementAndGet() == 0) {
+                finished.countDown();
+            }
+        }
+    }
+
+    private static final class ProbeThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "V2rayDelayTester-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package dev.amirzr.flutter_v2ray_client.v2ray.core;
+
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the dns servers of the tun interface through the tunnel while connected, with a
+ * DNS-over-TCP query sent through the local socks inbound, and ranks them by latency and success
+ * rate. The dns servers of an interface are fixed at establish, so the ranking is applied on the
+ * next connect.
+ */
+public final class V2rayDnsProber {
+    private static final String TAG = "V2rayDnsProber";
+    static final String PROBE_DOMAIN = "www.google.com";
+    private static final int DNS_PORT = 53;
+    private static final int QUERY_TIMEOUT_MILLIS = 3000;
+    private static final long FIRST_PROBE_DELAY_MILLIS = 5000L;
+    private static final long PROBE_INTERVAL_MILLIS = 5 * 60 * 1000L;
+    private static final double LATENCY_ALPHA = 0.3;
+    private static final double SUCCESS_ALPHA = 0.3;
+    /**
+     * Servers probed this often with a success rate below {@link #MIN_SUCCESS_RATE} are left out.
+     */
+    private static final int MIN_SAMPLES = 3;
+    private static final double MIN_SUCCESS_RATE = 0.2;
+    private volatile static V2rayDnsProber INSTANCE;
+
+    interface Transport {
+        /**
+         * Opens a tcp connection to port 53 of {@code server}.
+         */
+        Socket connect(String server, int timeoutMillis) throws IOException;
+    }
+
+    private final Transport transport;
+    private final Map<String, Quality> qualities = new HashMap<>();
+    private volatile int socksPort;
+    private ScheduledExecutorService scheduler;
+    private int nextQueryId = 1;
+
+    V2rayDnsProber(final Transport transport) {
+        this.transport = transport;
+    }
+
+    private V2rayDnsProber() {
+        this.transport = (server, timeoutMillis) -> {
+            Socket socket = new Socket(new Proxy(Proxy.Type.SOCKS, new InetSocketAddress("127.0.0.1", socksPort)));
+            // servers are ip literals, so this doesn't resolve anything
+            socket.connect(new InetSocketAddress(server, DNS_PORT), timeoutMillis);
+            return socket;
+        };
+    }
+
+    public static V2rayDnsProber getInstance() {
+        if (INSTANCE == null) {
+            synchronized (V2rayDnsProber.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new V2rayDnsProber();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Probes {@code servers} through the socks inbound on {@code socksPort} shortly after connect and
+     * then periodically, until {@link #stop}.
+     */
+    public synchronized void start(final List<String> servers, final int socksPort) {
+        stop();
+        if (servers.isEmpty()) {
+            return;
+        }
+        this.socksPort = socksPort;
+        final List<String> probed = new ArrayList<>(servers);
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "V2rayDnsProber");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            probeOnce(probed);
+            Log.i(TAG, "dns servers ranked => " + rank(probed));
+        }, FIRST_PROBE_DELAY_MILLIS, PROBE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Queries every server once, one after the other, and records the results.
+     */
+    void probeOnce(final List<String> servers) {
+        for (String server : servers) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            long delay = query(server);
+            synchronized (qualities) {
+                Quality quality = qualities.get(server);
+                if (quality == null) {
+                    quality = new Quality();
+                    qualities.put(server, quality);
+                }
+                quality.record(delay);
+            }
+        }
+    }
+
+    /**
+     * @return {@code servers} ordered best first: measured servers by latency weighted with their
+     * success rate, then servers not measured yet in their given order. Servers that keep failing
+     * are left out, unless that would leave none.
+     */
+    public List<String> rank(final List<String> servers) {
+        final Map<String, Double> scores = new HashMap<>();
+        List<String> ranked = new ArrayList<>();
+        synchronized (qualities) {
+            for (String server : servers) {
+                Quality quality = qualities.get(server);
+                if (quality != null && quality.samples >= MIN_SAMPLES && quality.successRate < MIN_SUCCESS_RATE) {
+                    continue;
+                }
+                scores.put(server, quality == null || quality.latency < 0
+                        ? Double.MAX_VALUE : quality.latency / Math.max(quality.successRate, 0.05));
+                ranked.add(server);
+            }
+        }
+        if (ranked.isEmpty()) {
+            return new ArrayList<>(servers);
+        }
+        // stable, so equal scores keep the config order
+        Collections.sort(ranked, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return Double.compare(scores.get(a), scores.get(b));
+            }
+        });
+        return ranked;
+    }
+
+    /**
+     * @return round trip in milliseconds including the connect, -1 on failure
+     */
+    private long query(final String server) {
+        int id;
+        synchronized (this) {
+            id = nextQueryId++ & 0xFFFF;
+        }
+        long start = System.nanoTime();
+        try (Socket socket = transport.connect(server, QUERY_TIMEOUT_MILLIS)) {
+            socket.setSoTimeout(QUERY_TIMEOUT_MILLIS);
+            byte[] query = buildQuery(id, PROBE_DOMAIN);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeShort(query.length);
+            out.write(query);
+            out.flush();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            byte[] response = new byte[in.readUnsignedShort()];
+            in.readFully(response);
+            if (!isAnswer(response, id)) {
+                return -1;
+            }
+            return (System.nanoTime() - start) / 1_000_000L;
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Builds a recursive A query for {@code domain}.
+     */
+    static byte[] buildQuery(final int id, final String domain) {
+        byte[] name = domain.getBytes(StandardCharsets.US_ASCII);
+        byte[] query = new byte[12 + name.length + 2 + 4];
+        query[0] = (byte) (id >> 8);
+        query[1] = (byte) id;
+        query[2] = 0x01; // recursion desired
+        query[5] = 0x01; // one question
+        int offset = 12;
+        for (String label : domain.split("\\.")) {
+            query[offset++] = (byte) label.length();
+            for (int i = 0; i < label.length(); i++) {
+                query[offset++] = (byte) label.charAt(i);
+            }
+        }
+        query[offset++] = 0;
+        query[offset + 1] = 0x01; // type A
+        query[offset + 3] = 0x01; // class IN
+        return query;
+    }
+
+    /**
+     * A response to query {@code id} without a server failure; NXDOMAIN still proves a working resolver.
+     */
+    static boolean isAnswer(final byte[] response, final int id) {
+        if (response.length < 12) {
+            return false;
+        }
+        int responseId = ((response[0] & 0xFF) << 8) | (response[1] & 0xFF);
+        boolean isResponse = (response[2] & 0x80) != 0;
+        int rcode = response[3] & 0x0F;
+        return responseId == id && isResponse && (rcode == 0 || rcode == 3);
+    }
+
+    private static final class Quality {
+        double latency = -1;
+        double successRate = 1;
+        int samples = 0;
+
+        void record(final long delay) {
+            samples++;
+            boolean success = delay >= 0;
+            successRate = samples == 1 ? (success ? 1 : 0)
+                    : successRate + SUCCESS_ALPHA * ((success ? 1 : 0) - successRate);
+            if (success) {
+                latency = latency < 0 ? delay : latency + LATENCY_ALPHA * (delay - latency);
+            }
+        }
+    }
+}
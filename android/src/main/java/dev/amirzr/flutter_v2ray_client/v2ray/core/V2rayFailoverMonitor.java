@@ -0,0 +1,185 @@
+package dev.amirzr.flutter_v2ray_client.v2ray.core;
+
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import dev.amirzr.flutter_v2ray_client.v2ray.services.V2rayProxyOnlyService;
+import dev.amirzr.flutter_v2ray_client.v2ray.services.V2rayVPNService;
+import dev.amirzr.flutter_v2ray_client.v2ray.utils.AppConfigs;
+import dev.amirzr.flutter_v2ray_client.v2ray.utils.Utilities;
+import dev.amirzr.flutter_v2ray_client.v2ray.utils.V2rayConfig;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically measures the connected server and, after {@code FAILOVER_MAX_FAILURES} consecutive
+ * failed or too slow measurements, switches to the fastest of the {@code FAILOVER_CONFIGS} candidates.
+ * Switches are reported on the status stream as {@code FAILOVER_SWITCHED} / {@code FAILOVER_FAILED} events.
+ */
+public final class V2rayFailoverMonitor {
+    private static final String TAG = "V2rayFailoverMonitor";
+    public static final String EVENT_SWITCHED = "FAILOVER_SWITCHED";
+    public static final String EVENT_FAILED = "FAILOVER_FAILED";
+
+    private final Context context;
+    private final V2rayConfig v2rayConfig;
+    private final String connectedFingerprint;
+    private ScheduledExecutorService scheduler;
+    private int consecutiveFailures = 0;
+    private volatile boolean switching = false;
+
+    public V2rayFailoverMonitor(final Context context, final V2rayConfig v2rayConfig,
+            final String connectedFingerprint) {
+        this.context = context.getApplicationContext();
+        this.v2rayConfig = v2rayConfig;
+        this.connectedFingerprint = connectedFingerprint;
+    }
+
+    public static boolean isEnabled(final V2rayConfig v2rayConfig) {
+        return v2rayConfig.FAILOVER_CONFIGS != null && !v2rayConfig.FAILOVER_CONFIGS.isEmpty()
+                && v2rayConfig.FAILOVER_CHECK_INTERVAL > 0;
+    }
+
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "V2rayFailoverMonitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::check, v2rayConfig.FAILOVER_CHECK_INTERVAL,
+                v2rayConfig.FAILOVER_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    private void check() {
+        if (switching || !V2rayCoreManager.getInstance().isV2rayCoreRunning()) {
+            return;
+        }
+        long delay = V2rayCoreManager.getInstance().getConnectedV2rayServerDelay(v2rayConfig.FAILOVER_URL);
+        String reason;
+        if (delay < 0) {
+            reason = "delay test failed";
+        } else if (v2rayConfig.FAILOVER_LATENCY_THRESHOLD > 0 && delay > v2rayConfig.FAILOVER_LATENCY_THRESHOLD) {
+            reason = "delay " + delay + "ms above threshold " + v2rayConfig.FAILOVER_LATENCY_THRESHOLD + "ms";
+        } else {
+            consecutiveFailures = 0;
+            return;
+        }
+        consecutiveFailures++;
+        Log.w(TAG, "check failed (" + consecutiveFailures + "/" + v2rayConfig.FAILOVER_MAX_FAILURES + ") => " + reason);
+        if (consecutiveFailures < v2rayConfig.FAILOVER_MAX_FAILURES) {
+            return;
+        }
+        consecutiveFailures = 0;
+        switchToBestCandidate(v2rayConfig.FAILOVER_MAX_FAILURES + " consecutive checks failed, last: " + reason);
+    }
+
+    private void switchToBestCandidate(final String reason) {
+        List<String> candidates = new ArrayList<>();
+        List<Integer> candidateIndexes = new ArrayList<>();
+        for (int i = 0; i < v2rayConfig.FAILOVER_CONFIGS.size(); i++) {
+            String candidate = v2rayConfig.FAILOVER_CONFIGS.get(i);
+            String fingerprint = V2rayProbeConfig.of(candidate).fingerprint;
+            if (fingerprint == null || !fingerprint.equals(connectedFingerprint)) {
+                candidates.add(candidate);
+                candidateIndexes.add(i);
+            }
+        }
+        // cached results may be up to a ttl old, the replacement has to be alive now
+        Map<Integer, Long> delays = V2rayDelayTester.measureServerDelays(candidates, v2rayConfig.FAILOVER_URL,
+                AppConfigs.DELAY_PROBE_TYPES.HTTP, V2rayDelayTester.DEFAULT_CONCURRENCY,
+                v2rayConfig.FAILOVER_CHECK_INTERVAL);
+        int best = -1;
+        long bestDelay = Long.MAX_VALUE;
+        // candidates are ranked, so on equal delay the earlier one wins
+        for (Map.Entry<Integer, Long> entry : delays.entrySet()) {
+            if (entry.getValue() >= 0 && entry.getValue() < bestDelay) {
+                best = entry.getKey();
+                bestDelay = entry.getValue();
+            }
+        }
+        if (best < 0) {
+            Log.e(TAG, "failover failed => no reachable candidate, " + reason);
+            V2rayCoreManager.getInstance().sendStatusEvent(EVENT_FAILED, eventDetail(reason, -1, -1));
+            return;
+        }
+        final int index = candidateIndexes.get(best);
+        // runs in the service process, so the candidate takes the settings of the running connection
+        final V2rayConfig candidate = Utilities.parseV2rayJsonFile(context, candidates.get(best), v2rayConfig);
+        if (candidate == null) {
+            Log.e(TAG, "failover failed => can`t parse candidate " + index + ", " + reason);
+            V2rayCoreManager.getInstance().sendStatusEvent(EVENT_FAILED, eventDetail(reason, index, bestDelay));
+            return;
+        }
+        final long delay = bestDelay;
+        // the switch stops this monitor, which would interrupt its own scheduler thread
+        switching = true;
+        new Thread(() -> switchTo(candidate, reason, index, delay), "V2rayFailoverSwitch").start();
+    }
+
+    private void switchTo(final V2rayConfig candidate, final String reason, final int index, final long delay) {
+        Log.i(TAG, "failover => switching to candidate " + index + " (" + delay + "ms), " + reason);
+        boolean switched = V2rayCoreManager.getInstance().switchServer(candidate) >= 0;
+        if (!switched) {
+            Log.w(TAG, "failover => in place switch failed, restarting with candidate " + index);
+            switched = restartWith(candidate);
+        }
+        if (switched) {
+            V2rayCoreManager.getInstance().sendStatusEvent(EVENT_SWITCHED, eventDetail(reason, index, delay));
+        } else {
+            Log.e(TAG, "failover failed => can`t switch to candidate " + index + ", " + reason);
+            V2rayCoreManager.getInstance().sendStatusEvent(EVENT_FAILED, eventDetail(reason, index, delay));
+        }
+        switching = false;
+    }
+
+    /**
+     * @return whether the service accepted the restart
+     */
+    private boolean restartWith(final V2rayConfig candidate) {
+        Intent start_intent;
+        if (candidate.CONNECTION_MODE == AppConfigs.V2RAY_CONNECTION_MODES.PROXY_ONLY) {
+            start_intent = new Intent(context, V2rayProxyOnlyService.class);
+        } else {
+            start_intent = new Intent(context, V2rayVPNService.class);
+        }
+        start_intent.putExtra("COMMAND", AppConfigs.V2RAY_SERVICE_COMMANDS.START_SERVICE);
+        start_intent.putExtra("V2RAY_CONFIG", candidate);
+        try {
+            // the service is already in the foreground
+            return context.startService(start_intent) != null;
+        } catch (Exception e) {
+            Log.e(TAG, "failover restart failed =>", e);
+            return false;
+        }
+    }
+
+    private static String eventDetail(final String reason, final int index, final long delay) {
+        try {
+            return new JSONObject()
+                    .put("reason", reason)
+                    .put("index", index)
+                    .put("delay", delay)
+                    .toString();
+        } catch (Exception e) {
+            return reason;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package dev.amirzr.flutter_v2ray_client.v2ray.core;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Set of installed package names, loaded with one package manager call and kept until a package is
+ * added, removed or replaced. Used to drop unknown packages from the allowed and blocked app lists
+ * before they reach the vpn builder, which would otherwise look up and reject them one by one.
+ */
+public final class V2rayInstalledApps {
+    private static final String TAG = "V2rayInstalledApps";
+    private volatile static V2rayInstalledApps INSTANCE;
+
+    private Set<String> packages;
+    private boolean receiverRegistered = false;
+
+    private V2rayInstalledApps() {
+    }
+
+    public static V2rayInstalledApps getInstance() {
+        if (INSTANCE == null) {
+            synchronized (V2rayInstalledApps.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new V2rayInstalledApps();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * @return the installed packages among {@code packageNames}, in their order
+     */
+    public List<String> filter(final Context context, final Collection<String> packageNames) {
+        Set<String> installed = getPackages(context);
+        List<String> result = new ArrayList<>();
+        for (String packageName : packageNames) {
+            if (installed == null || installed.contains(packageName)) {
+                result.add(packageName);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the cached package names, null if they can't be listed
+     */
+    private synchronized Set<String> getPackages(final Context context) {
+        if (packages != null) {
+            return packages;
+        }
+        registerReceiver(context.getApplicationContext());
+        try {
+            Set<String> loaded = new HashSet<>();
+            for (ApplicationInfo info : context.getPackageManager().getInstalledApplications(0)) {
+                loaded.add(info.packageName);
+            }
+            // without the receiver a cached set could go stale
+            if (receiverRegistered) {
+                packages = loaded;
+            }
+            return loaded;
+        } catch (Exception e) {
+            Log.w(TAG, "can`t list installed packages => " + e);
+            return null;
+        }
+    }
+
+    private synchronized void invalidate() {
+        packages = null;
+    }
+
+    private void registerReceiver(final Context context) {
+        if (receiverRegistered) {
+            return;
+        }
+        BroadcastReceiver receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context arg0, Intent arg1) {
+                invalidate();
+            }
+        };
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        try {
+            // package broadcasts come from the system, which not exported receivers still get
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                context.registerReceiver(receiver, filter, Context.RECEIVER_NOT_EXPORTED);
+            } else {
+                context.registerReceiver(receiver, filter);
+            }
+            receiverRegistered = true;
+        } catch (Exception e) {
+            Log.w(TAG, "can`t watch package changes => " + e);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package dev.amirzr.flutter_v2ray_client.v2ray.core;
+
+import android.util.Log;
+
+import dev.amirzr.flutter_v2ray_client.v2ray.utils.Utilities;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compact form of a server config holding only what a delay probe needs: the default outbound
+ * with the outbounds it chains through, the dns section and an empty routing skeleton.
+ * Compiled configs are cached, so repeated probes of a server skip parsing its full json.
+ */
+public final class V2rayProbeConfig {
+    private static final String TAG = "V2rayProbeConfig";
+    private static final int MAX_ENTRIES = 512;
+    private static final Map<String, V2rayProbeConfig> COMPILED = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Config handed to {@code Libv2ray.measureOutboundDelay}.
+     */
+    public final String config;
+    /**
+     * {@link Utilities#getOutboundFingerprint} of the source config, null if it could not be parsed.
+     */
+    public final String fingerprint;
+    public final String serverAddress;
+    public final int serverPort;
+    /**
+     * SNI used by TLS probes, null when the outbound has no tls/reality security.
+     */
+    public final String tlsServerName;
+
+    private V2rayProbeConfig(String config, String fingerprint, String serverAddress, int serverPort,
+            String tlsServerName) {
+        this.config = config;
+        this.fingerprint = fingerprint;
+        this.serverAddress = serverAddress;
+        this.serverPort = serverPort;
+        this.tlsServerName = tlsServerName;
+    }
+
+    public static V2rayProbeConfig of(final String config) {
+        String key;
+        try {
+            key = Utilities.sha256Hex(config);
+        } catch (Exception e) {
+            return compile(config);
+        }
+        synchronized (COMPILED) {
+            V2rayProbeConfig compiled = COMPILED.get(key);
+            if (compiled != null) {
+                return compiled;
+            }
+        }
+        V2rayProbeConfig compiled = compile(config);
+        synchronized (COMPILED) {
+            COMPILED.put(key, compiled);
+            if (COMPILED.size() > MAX_ENTRIES) {
+                COMPILED.remove(COMPILED.keySet().iterator().next());
+            }
+        }
+        return compiled;
+    }
+
+    private static V2rayProbeConfig compile(final String config) {
+        JSONObject config_json;
+        try {
+            config_json = new JSONObject(config);
+        } catch (Exception e) {
+            Log.w(TAG, "compile failed => " + e);
+            return new V2rayProbeConfig(config, null, null, -1, null);
+        }
+        String fingerprint = Utilities.getOutboundFingerprint(config_json);
+
+        String serverAddress = null;
+        int serverPort = -1;
+        String tlsServerName = null;
+        try {
+            JSONObject server = Utilities.getOutboundServer(config_json);
+            serverAddress = server.getString("address");
+            serverPort = Integer.parseInt(server.getString("port"));
+            tlsServerName = tlsServerName(config_json.getJSONArray("outbounds").getJSONObject(0), serverAddress);
+        } catch (Exception e) {
+            // not a vnext/servers outbound, only the http probe can measure it
+        }
+
+        String probeConfig = config;
+        try {
+            JSONObject probe_json = new JSONObject();
+            probe_json.put("outbounds", new JSONArray(Utilities.getOutboundChain(
+                    config_json.getJSONArray("outbounds"), 0)));
+            JSONObject routing = new JSONObject();
+            JSONObject source_routing = config_json.optJSONObject("routing");
+            if (source_routing != null && source_routing.has("domainStrategy")) {
+                routing.put("domainStrategy", source_routing.get("domainStrategy"));
+            }
+            probe_json.put("routing", routing);
+            if (config_json.has("dns")) {
+                probe_json.put("dns", config_json.get("dns"));
+            }
+            probeConfig = probe_json.toString();
+        } catch (Exception e) {
+            Log.w(TAG, "compile failed, probing full config => " + e);
+        }
+        return new V2rayProbeConfig(probeConfig, fingerprint, serverAddress, serverPort, tlsServerName);
+    }
+
+    private static String tlsServerName(final JSONObject outbound, final String host) {
+        JSONObject streamSettings = outbound.optJSONObject("streamSettings");
+        if (streamSettings == null) {
+            return null;
+        }
+        JSONObject securitySettings;
+        switch (streamSettings.optString("security", "")) {
+            case "tls":
+                securitySettings = streamSettings.optJSONObject("tlsSettings");
+                break;
+            case "reality":
+                securitySettings = streamSettings.optJSONObject("realitySettings");
+                break;
+            default:
+                return null;
+        }
+        String serverName = securitySettings != null ? securitySettings.optString("serverName", "") : "";
+        return serverName.isEmpty() ? host : serverName;
+    }
+}
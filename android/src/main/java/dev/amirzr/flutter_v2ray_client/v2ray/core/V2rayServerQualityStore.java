@@ -0,0 +1,280 @@
+package dev.amirzr.flutter_v2ray_client.v2ray.core;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * On-device record of how every server performed, keyed by outbound fingerprint.
+ * Keeps an EWMA of latency and success, the last time the server was seen and the sample count
+ * in a small binary file, so the best servers are known at startup without probing.
+ * <p>
+ * The plugin process owns the store and its file. The service process sets a {@link Forwarder}
+ * that sends its records over, so there is a single writer.
+ */
+public final class V2rayServerQualityStore {
+    private static final String TAG = "V2rayServerQualityStore";
+    private static final String FILE_NAME = "v2ray_server_quality.bin";
+    private static final int FILE_MAGIC = 0x56325351; // "V2SQ"
+    private static final int FILE_VERSION = 1;
+    private static final int FINGERPRINT_BYTES = 32;
+    private static final int MAX_ENTRIES = 1024;
+    private static final long SAVE_DELAY_MILLIS = 2000L;
+    private static final double LATENCY_ALPHA = 0.3;
+    private static final double SUCCESS_ALPHA = 0.2;
+    private volatile static V2rayServerQualityStore INSTANCE;
+
+    public interface Forwarder {
+        void forward(String fingerprint, boolean success, long latency);
+    }
+
+    private final Map<String, Quality> qualities = new HashMap<>();
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "V2rayServerQualityStore");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private File file;
+    private boolean saveScheduled = false;
+    private volatile Forwarder forwarder;
+
+    private V2rayServerQualityStore() {
+    }
+
+    public static V2rayServerQualityStore getInstance() {
+        if (INSTANCE == null) {
+            synchronized (V2rayServerQualityStore.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new V2rayServerQualityStore();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Loads the stored qualities in the background. Records made before this are kept and merged.
+     */
+    public void init(final Context context) {
+        synchronized (qualities) {
+            if (file != null) {
+                return;
+            }
+            file = new File(context.getApplicationContext().getFilesDir(), FILE_NAME);
+        }
+        writer.execute(this::load);
+    }
+
+    /**
+     * Sends the records of this process to the owner of the store instead of keeping them.
+     */
+    public void setForwarder(final Forwarder forwarder) {
+        this.forwarder = forwarder;
+    }
+
+    /**
+     * Records a delay probe result, {@code delay < 0} counts as a failure.
+     * Only {@code countLatency} results update the latency average, so cheap connect probes don't
+     * skew it while still counting toward the success ratio.
+     */
+    public void recordProbe(final String fingerprint, final long delay, final boolean countLatency) {
+        record(fingerprint, delay >= 0, countLatency ? delay : -1);
+    }
+
+    /**
+     * Records whether a connection to the server could be established.
+     */
+    public void recordSession(final String fingerprint, final boolean success) {
+        record(fingerprint, success, -1);
+    }
+
+    /**
+     * Returns up to {@code count} servers ordered best first: lowest average latency weighted by
+     * success ratio, servers that never answered last.
+     *
+     * @param fingerprints restricts the result to these servers, the position of each fingerprint is
+     *                     returned as {@code index}; null returns every stored server
+     */
+    public List<Map<String, Object>> getTopServers(final int count, final List<String> fingerprints) {
+        List<Map<String, Object>> servers = new ArrayList<>();
+        synchronized (qualities) {
+            if (fingerprints == null) {
+                for (Map.Entry<String, Quality> entry : qualities.entrySet()) {
+                    servers.add(entry.getValue().toMap(entry.getKey(), -1));
+                }
+            } else {
+                for (int i = 0; i < fingerprints.size(); i++) {
+                    Quality quality = fingerprints.get(i) != null ? qualities.get(fingerprints.get(i)) : null;
+                    if (quality != null) {
+                        servers.add(quality.toMap(fingerprints.get(i), i));
+                    }
+                }
+            }
+        }
+        Collections.sort(servers, (a, b) -> Double.compare((double) a.get("score"), (double) b.get("score")));
+        return servers.size() > count ? new ArrayList<>(servers.subList(0, Math.max(0, count))) : servers;
+    }
+
+    /**
+     * Records a result forwarded by another process, {@code latency < 0} leaves the latency average.
+     */
+    public void record(final String fingerprint, final boolean success, final long latency) {
+        if (fingerprint == null) {
+            return;
+        }
+        Forwarder target = forwarder;
+        if (target != null) {
+            target.forward(fingerprint, success, latency);
+            return;
+        }
+        synchronized (qualities) {
+            Quality quality = qualities.get(fingerprint);
+            if (quality == null) {
+                quality = new Quality();
+                qualities.put(fingerprint, quality);
+                trimToSize();
+            }
+            quality.update(success, latency, System.currentTimeMillis());
+            scheduleSave();
+        }
+    }
+
+    private void trimToSize() {
+        while (qualities.size() > MAX_ENTRIES) {
+            String oldest = null;
+            long oldestSeen = Long.MAX_VALUE;
+            for (Map.Entry<String, Quality> entry : qualities.entrySet()) {
+                if (entry.getValue().lastSeen < oldestSeen) {
+                    oldestSeen = entry.getValue().lastSeen;
+                    oldest = entry.getKey();
+                }
+            }
+            qualities.remove(oldest);
+        }
+    }
+
+    private void scheduleSave() {
+        if (file == null || saveScheduled) {
+            return;
+        }
+        saveScheduled = true;
+        writer.schedule(this::save, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                Log.w(TAG, "load skipped => unknown file format");
+                return;
+            }
+            int size = in.readInt();
+            byte[] fingerprint = new byte[FINGERPRINT_BYTES];
+            synchronized (qualities) {
+                for (int i = 0; i < size; i++) {
+                    in.readFully(fingerprint);
+                    Quality quality = new Quality();
+                    quality.latency = in.readFloat();
+                    quality.success = in.readFloat();
+                    quality.lastSeen = in.readLong();
+                    quality.samples = in.readInt();
+                    String key = toHex(fingerprint);
+                    // anything recorded before loading is newer than the file
+                    if (!qualities.containsKey(key)) {
+                        qualities.put(key, quality);
+                    }
+                }
+                trimToSize();
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "load failed => " + e);
+        }
+    }
+
+    private void save() {
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                synchronized (qualities) {
+                    saveScheduled = false;
+                    out.writeInt(FILE_MAGIC);
+                    out.writeInt(FILE_VERSION);
+                    out.writeInt(qualities.size());
+                    for (Map.Entry<String, Quality> entry : qualities.entrySet()) {
+                        out.write(fromHex(entry.getKey()));
+                        out.writeFloat((float) entry.getValue().latency);
+                        out.writeFloat((float) entry.getValue().success);
+                        out.writeLong(entry.getValue().lastSeen);
+                        out.writeInt(entry.getValue().samples);
+                    }
+                }
+            }
+            if (!temp.renameTo(file)) {
+                Log.w(TAG, "save failed => can`t replace " + file);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "save failed => " + e);
+        }
+    }
+
+    private static String toHex(final byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static byte[] fromHex(final String hex) {
+        byte[] bytes = new byte[FINGERPRINT_BYTES];
+        for (int i = 0; i < bytes.length && i * 2 + 1 < hex.length(); i++) {
+            bytes[i] = (byte) ((Character.digit(hex.charAt(i * 2), 16) << 4) + Character.digit(hex.charAt(i * 2 + 1), 16));
+        }
+        return bytes;
+    }
+
+    private static final class Quality {
+        double latency = -1;
+        double success = 1;
+        long lastSeen;
+        int samples;
+
+        void update(final boolean ok, final long delay, final long now) {
+            success = samples == 0 ? (ok ? 1 : 0) : success + SUCCESS_ALPHA * ((ok ? 1 : 0) - success);
+            if (ok && delay >= 0) {
+                latency = latency < 0 ? delay : latency + LATENCY_ALPHA * (delay - latency);
+            }
+            lastSeen = now;
+            samples++;
+        }
+
+        Map<String, Object> toMap(final String fingerprint, final int index) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("fingerprint", fingerprint);
+            map.put("index", index);
+            map.put("latency", latency);
+            map.put("successRate", success);
+            map.put("lastSeen", lastSeen);
+            map.put("samples", samples);
+            map.put("score", latency < 0 || success <= 0 ? Double.MAX_VALUE : latency / success);
+            return map;
+        }
+    }
+}
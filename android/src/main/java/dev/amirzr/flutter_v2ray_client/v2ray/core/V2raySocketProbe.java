@@ -0,0 +1,99 @@
+package dev.amirzr.flutter_v2ray_client.v2ray.core;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import dev.amirzr.flutter_v2ray_client.v2ray.utils.AppConfigs;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.cert.CertificateException;
+
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Cheap delay probes that talk to the server directly instead of running the core:
+ * a plain TCP connect or a TCP connect followed by a TLS handshake.
+ */
+public final class V2raySocketProbe {
+    private static final String TAG = "V2raySocketProbe";
+    public static final int TIMEOUT_MILLIS = 5000;
+
+    private V2raySocketProbe() {
+    }
+
+    /**
+     * Measures the first outbound of {@code probeConfig} with a TCP or TLS probe.
+     * A TLS probe of an outbound without tls/reality security falls back to TCP.
+     *
+     * @return delay in milliseconds, -1 on failure
+     */
+    public static long measure(final V2rayProbeConfig probeConfig, final AppConfigs.DELAY_PROBE_TYPES type) {
+        if (probeConfig.serverAddress == null) {
+            Log.w(TAG, type + " probe failed => outbound has no server address");
+            return -1L;
+        }
+        try {
+            // resolve first so DNS time is not part of the measurement
+            InetAddress address = InetAddress.getByName(probeConfig.serverAddress);
+            if (type == AppConfigs.DELAY_PROBE_TYPES.TLS && probeConfig.tlsServerName != null) {
+                return tlsHandshake(address, probeConfig.serverPort, probeConfig.tlsServerName);
+            }
+            return tcpConnect(address, probeConfig.serverPort);
+        } catch (Exception e) {
+            Log.w(TAG, type + " probe failed => " + e);
+            return -1L;
+        }
+    }
+
+    private static long tcpConnect(final InetAddress address, final int port) throws Exception {
+        try (Socket socket = openSocket()) {
+            long start = SystemClock.elapsedRealtime();
+            socket.connect(new InetSocketAddress(address, port), TIMEOUT_MILLIS);
+            return SystemClock.elapsedRealtime() - start;
+        }
+    }
+
+    private static long tlsHandshake(final InetAddress address, final int port, final String serverName)
+            throws Exception {
+        try (Socket socket = openSocket()) {
+            long start = SystemClock.elapsedRealtime();
+            socket.connect(new InetSocketAddress(address, port), TIMEOUT_MILLIS);
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+            try (SSLSocket sslSocket = (SSLSocket) factory.createSocket(socket, serverName, port, false)) {
+                sslSocket.startHandshake();
+            } catch (SSLHandshakeException e) {
+                // a rejected certificate (self-signed, reality) still means the server completed its
+                // side of the handshake, which is all we time here
+                if (!isCertificateFailure(e)) {
+                    throw e;
+                }
+            }
+            return SystemClock.elapsedRealtime() - start;
+        }
+    }
+
+    /**
+     * Creates an unconnected socket that bypasses the VPN interface while a VPN session is active.
+     */
+    private static Socket openSocket() throws Exception {
+        Socket socket = new Socket();
+        socket.bind(null);
+        V2rayCoreManager.getInstance().protect(socket);
+        return socket;
+    }
+
+    private static boolean isCertificateFailure(Throwable error) {
+        while (error != null) {
+            if (error instanceof CertificateException) {
+                return true;
+            }
+            error = error.getCause();
+        }
+        return false;
+    }
+}
@@ -0,0 +1,81 @@
+package dev.amirzr.flutter_v2ray_client.v2ray.services;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Drains the merged stdout/stderr of tun2socks into logcat. The pipe must be read continuously,
+ * once its buffer fills tun2socks blocks on write and stalls the data path, so lines over
+ * {@link #MAX_LINES_PER_SECOND} are counted and dropped instead of slowing the reader down.
+ */
+final class Tun2socksLogReader implements Runnable {
+    private static final String TAG = "tun2socks";
+    static final int MAX_LINES_PER_SECOND = 20;
+    private static final long WINDOW_MILLIS = 1000L;
+
+    private final InputStream output;
+    private long windowStart = 0;
+    private int windowLines = 0;
+    private int dropped = 0;
+
+    private Tun2socksLogReader(final InputStream output) {
+        this.output = output;
+    }
+
+    /**
+     * Starts a low priority daemon thread draining {@code process} until its output is closed.
+     */
+    static void start(final Process process) {
+        Thread thread = new Thread(new Tun2socksLogReader(process.getInputStream()), "Tun2socks_Log");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(output, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                log(line);
+            }
+        } catch (IOException e) {
+            // the process was destroyed
+        }
+        if (dropped > 0) {
+            Log.w(TAG, dropped + " lines dropped by the rate limit");
+        }
+    }
+
+    private void log(final String line) {
+        long now = SystemClock.elapsedRealtime();
+        if (now - windowStart >= WINDOW_MILLIS) {
+            if (dropped > 0) {
+                Log.w(TAG, dropped + " lines dropped by the rate limit");
+            }
+            windowStart = now;
+            windowLines = 0;
+            dropped = 0;
+        }
+        if (++windowLines > MAX_LINES_PER_SECOND) {
+            dropped++;
+            return;
+        }
+        // badvpn prefixes every line with its level, e.g. "ERROR(tun2socks): ..."
+        if (line.startsWith("ERROR")) {
+            Log.e(TAG, line);
+        } else if (line.startsWith("WARNING")) {
+            Log.w(TAG, line);
+        } else if (line.startsWith("DEBUG")) {
+            Log.d(TAG, line);
+        } else {
+            Log.i(TAG, line);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package dev.amirzr.flutter_v2ray_client.v2ray.services;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps tun2socks running: restarts it with exponential backoff when it exits and gives up when it
+ * keeps crashing, instead of respawning it in a tight loop.
+ */
+public final class Tun2socksSupervisor {
+    private static final String TAG = "Tun2socksSupervisor";
+    static final long INITIAL_BACKOFF_MILLIS = 250L;
+    static final long MAX_BACKOFF_MILLIS = 8000L;
+    /**
+     * A process that ran this long resets the backoff.
+     */
+    static final long STABLE_UPTIME_MILLIS = 30000L;
+    /**
+     * This many exits within {@link #CRASH_LOOP_WINDOW_MILLIS} trip the circuit breaker.
+     */
+    static final int CRASH_LOOP_EXITS = 5;
+    static final long CRASH_LOOP_WINDOW_MILLIS = 60000L;
+    private static volatile Tun2socksSupervisor LATEST;
+
+    interface Launcher {
+        /**
+         * Spawns tun2socks and starts handing it the tun fd.
+         */
+        Process launch() throws Exception;
+    }
+
+    interface Listener {
+        /**
+         * Called from the supervisor thread once the restarts were given up.
+         */
+        void onCrashLoop(String reason);
+    }
+
+    private final Launcher launcher;
+    private final Listener listener;
+    private final ArrayDeque<Long> recentExits = new ArrayDeque<>();
+    private volatile boolean running = false;
+    private volatile Process process;
+    private volatile long startedAt;
+    private volatile int restarts = 0;
+    private volatile int lastExitCode = 0;
+    private volatile long backoffMillis = INITIAL_BACKOFF_MILLIS;
+    private Thread thread;
+
+    Tun2socksSupervisor(final Launcher launcher, final Listener listener) {
+        this.launcher = launcher;
+        this.listener = listener;
+    }
+
+    /**
+     * Launches tun2socks on the calling thread, then watches it from a supervisor thread.
+     *
+     * @return false if the first launch failed
+     */
+    synchronized boolean start() {
+        try {
+            process = launcher.launch();
+        } catch (Exception e) {
+            Log.e(TAG, "tun2socks launch failed =>", e);
+            return false;
+        }
+        startedAt = SystemClock.elapsedRealtime();
+        running = true;
+        LATEST = this;
+        thread = new Thread(this::supervise, "Tun2socks_Thread");
+        thread.start();
+        return true;
+    }
+
+    synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        Process current = process;
+        if (current != null) {
+            current.destroy();
+        }
+    }
+
+    /**
+     * @return whether the tun2socks process is up, false while a relaunch is pending or after giving up
+     */
+    boolean isAlive() {
+        Process current = process;
+        if (!running || current == null) {
+            return false;
+        }
+        try {
+            // Process.isAlive needs API 26
+            current.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    private void supervise() {
+        while (running) {
+            try {
+                lastExitCode = process.waitFor();
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (!running) {
+                break;
+            }
+            long now = SystemClock.elapsedRealtime();
+            long uptime = now - startedAt;
+            if (uptime >= STABLE_UPTIME_MILLIS) {
+                backoffMillis = INITIAL_BACKOFF_MILLIS;
+            }
+            Log.w(TAG, "tun2socks exited => code " + lastExitCode + " after " + uptime + "ms");
+            if (recordExit(now)) {
+                giveUp(CRASH_LOOP_EXITS + " exits within " + CRASH_LOOP_WINDOW_MILLIS + "ms, last code " + lastExitCode);
+                return;
+            }
+            if (!relaunch()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Waits the current backoff and launches tun2socks again, failed launches count as exits.
+     */
+    private boolean relaunch() {
+        while (running) {
+            try {
+                Thread.sleep(backoffMillis);
+            } catch (InterruptedException e) {
+                return false;
+            }
+            backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+            synchronized (this) {
+                if (!running) {
+                    return false;
+                }
+                restarts++;
+                try {
+                    process = launcher.launch();
+                    startedAt = SystemClock.elapsedRealtime();
+                    return true;
+                } catch (Exception e) {
+                    Log.e(TAG, "tun2socks relaunch failed =>", e);
+                    lastExitCode = -1;
+                }
+            }
+            if (recordExit(SystemClock.elapsedRealtime())) {
+                giveUp(CRASH_LOOP_EXITS + " failed launches within " + CRASH_LOOP_WINDOW_MILLIS + "ms");
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the exit trips the crash-loop circuit breaker
+     */
+    private boolean recordExit(final long now) {
+        recentExits.addLast(now);
+        while (!recentExits.isEmpty() && now - recentExits.peekFirst() > CRASH_LOOP_WINDOW_MILLIS) {
+            recentExits.removeFirst();
+        }
+        return recentExits.size() >= CRASH_LOOP_EXITS;
+    }
+
+    private void giveUp(final String reason) {
+        Log.e(TAG, "tun2socks crash loop => " + reason);
+        running = false;
+        listener.onCrashLoop(reason);
+    }
+
+    /**
+     * @return restart counters and uptime of the latest supervisor, empty before the first start
+     */
+    public static Map<String, Object> getLatestStats() {
+        Tun2socksSupervisor latest = LATEST;
+        Map<String, Object> stats = new HashMap<>();
+        if (latest == null) {
+            return stats;
+        }
+        stats.put("running", latest.running);
+        stats.put("restarts", latest.restarts);
+        stats.put("lastExitCode", latest.lastExitCode);
+        stats.put("uptime", latest.running ? SystemClock.elapsedRealtime() - latest.startedAt : 0L);
+        stats.put("backoff", latest.backoffMillis);
+        return stats;
+    }
+}
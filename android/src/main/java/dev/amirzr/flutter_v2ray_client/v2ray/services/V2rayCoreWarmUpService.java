@@ -0,0 +1,31 @@
+package dev.amirzr.flutter_v2ray_client.v2ray.services;
+
+import android.app.Service;
+import android.content.Intent;
+import android.os.IBinder;
+
+import androidx.annotation.Nullable;
+
+import dev.amirzr.flutter_v2ray_client.v2ray.core.V2rayCoreManager;
+
+/**
+ * Sets the core environment up in the service process ahead of the first connect, then stops.
+ * Unlike the connection services it binds no listener, so it can't take over a running session.
+ */
+public class V2rayCoreWarmUpService extends Service {
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, final int startId) {
+        new Thread(() -> {
+            V2rayCoreManager.getInstance().initCoreEnvironment(this);
+            stopSelf(startId);
+        }, "V2rayCoreWarmUp").start();
+        return START_NOT_STICKY;
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+}
@@ -0,0 +1,216 @@
+package dev.amirzr.flutter_v2ray_client.v2ray.services;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import dev.amirzr.flutter_v2ray_client.v2ray.core.V2rayCoreManager;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a connected session for a stall the core doesn't report, it keeps running while no data
+ * moves. A stall is declared when, for the whole window, tun2socks is down, uplink grows without any
+ * downlink, or the delay probes of the connected server fail without any downlink. Each stall runs
+ * the next rung of the recovery ladder: reset connections (restart tun2socks), restart the core, then
+ * a full reconnect. The ladder starts over once downlink flows again.
+ */
+final class V2rayHealthWatchdog {
+    private static final String TAG = "V2rayHealthWatchdog";
+    static final long MIN_CHECK_INTERVAL_MILLIS = 2000L;
+    static final long MAX_CHECK_INTERVAL_MILLIS = 30000L;
+
+    enum Actions {
+        RESET_CONNECTIONS,
+        RESTART_CORE,
+        RECONNECT
+    }
+
+    interface Signals {
+        /**
+         * @return total uplink and downlink bytes of the session, null without traffic statics
+         */
+        long[] getTraffic();
+
+        /**
+         * @return delay of the connected server in milliseconds, -1 on failure
+         */
+        long measureDelay();
+
+        boolean isTun2socksAlive();
+    }
+
+    interface Recovery {
+        /**
+         * Runs {@code action} on the watchdog thread.
+         *
+         * @return its time in milliseconds, -1 on failure
+         */
+        long recover(Actions action);
+    }
+
+    private final long window;
+    private final boolean hasTun2socks;
+    private final Signals signals;
+    private final Recovery recovery;
+    private ScheduledExecutorService scheduler;
+    private long[] lastTraffic;
+    private long lastCheckAt = -1;
+    private long downlinkAt = -1;
+    private long silentUplinkSince = -1;
+    private long probeFailingSince = -1;
+    private long tun2socksDownSince = -1;
+    private long stalledSince = -1;
+    private int rung;
+
+    V2rayHealthWatchdog(final long window, final boolean hasTun2socks, final Signals signals,
+            final Recovery recovery) {
+        this.window = window;
+        this.hasTun2socks = hasTun2socks;
+        this.signals = signals;
+        this.recovery = recovery;
+        this.rung = hasTun2socks ? 0 : 1;
+    }
+
+    synchronized void start() {
+        if (scheduler != null || window <= 0) {
+            return;
+        }
+        reset(SystemClock.elapsedRealtime());
+        long interval = Math.max(MIN_CHECK_INTERVAL_MILLIS, Math.min(window / 3, MAX_CHECK_INTERVAL_MILLIS));
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "V2rayHealthWatchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::run, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    private void run() {
+        try {
+            tick();
+        } catch (Throwable t) {
+            // an exception would cancel the schedule and leave the session unwatched
+            Log.e(TAG, "health check failed =>", t);
+        }
+    }
+
+    private void tick() {
+        long now = SystemClock.elapsedRealtime();
+        String reason = check(now);
+        if (reason == null) {
+            return;
+        }
+        Actions action = nextAction();
+        long stalled = now - stalledSince;
+        Log.w(TAG, "stall => " + reason + ", running " + action);
+        long latency = recovery.recover(action);
+        if (latency < 0) {
+            Log.e(TAG, "recovery " + action + " failed");
+        } else {
+            Log.i(TAG, "recovery " + action + " => " + latency + "ms");
+        }
+        String detail;
+        try {
+            detail = new JSONObject()
+                    .put("action", action.name().toLowerCase(Locale.ROOT))
+                    .put("reason", reason)
+                    .put("stalled", stalled)
+                    .put("latency", latency)
+                    .toString();
+        } catch (JSONException e) {
+            detail = action.name();
+        }
+        V2rayCoreManager.getInstance().sendStatusEvent(V2rayVPNService.EVENT_HEALTH_RECOVERY, detail);
+        // the action gets a full window before the next rung
+        reset(SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Samples the signals once.
+     *
+     * @return why the session is stalled, null while it looks healthy
+     */
+    String check(final long now) {
+        long[] traffic = signals.getTraffic();
+        if (traffic != null && lastTraffic != null) {
+            if (traffic[1] > lastTraffic[1]) {
+                downlinkAt = now;
+                silentUplinkSince = -1;
+                // data flows again, the next stall starts the ladder over
+                rung = hasTun2socks ? 0 : 1;
+            } else if (traffic[0] > lastTraffic[0] && silentUplinkSince < 0) {
+                silentUplinkSince = lastCheckAt;
+            }
+        }
+        lastTraffic = traffic;
+        long previousCheckAt = lastCheckAt;
+        lastCheckAt = now;
+
+        if (hasTun2socks && !signals.isTun2socksAlive()) {
+            if (tun2socksDownSince < 0) {
+                tun2socksDownSince = previousCheckAt;
+            }
+            if (now - tun2socksDownSince >= window) {
+                return stall(tun2socksDownSince, "tun2socks down for " + (now - tun2socksDownSince) + "ms");
+            }
+        } else {
+            tun2socksDownSince = -1;
+        }
+        if (silentUplinkSince >= 0 && now - silentUplinkSince >= window) {
+            return stall(silentUplinkSince, "uplink without downlink for " + (now - silentUplinkSince) + "ms");
+        }
+        if (signals.measureDelay() >= 0) {
+            probeFailingSince = -1;
+            if (traffic == null) {
+                rung = hasTun2socks ? 0 : 1;
+            }
+            return null;
+        }
+        if (probeFailingSince < 0) {
+            probeFailingSince = previousCheckAt;
+        }
+        if (now - probeFailingSince >= window && downlinkAt <= probeFailingSince) {
+            return stall(probeFailingSince, "delay probes failing for " + (now - probeFailingSince) + "ms");
+        }
+        return null;
+    }
+
+    /**
+     * @return the rung to run for the current stall, the ladder stays on its last rung
+     */
+    Actions nextAction() {
+        Actions action = Actions.values()[rung];
+        rung = Math.min(rung + 1, Actions.values().length - 1);
+        return action;
+    }
+
+    /**
+     * Restarts every signal at {@code now}.
+     */
+    void reset(final long now) {
+        lastTraffic = signals.getTraffic();
+        lastCheckAt = now;
+        downlinkAt = now;
+        silentUplinkSince = -1;
+        probeFailingSince = -1;
+        tun2socksDownSince = -1;
+    }
+
+    private String stall(final long since, final String reason) {
+        stalledSince = since;
+        return reason;
+    }
+}
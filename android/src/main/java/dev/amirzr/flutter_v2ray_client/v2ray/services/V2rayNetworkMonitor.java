@@ -0,0 +1,143 @@
+package dev.amirzr.flutter_v2ray_client.v2ray.services;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.net.VpnService;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Follows the best non-vpn network: keeps it set as the underlying network of the vpn, so the
+ * system reports the real metering and bandwidth, and reports when traffic moves to another network
+ * (e.g. Wi-Fi to cellular) so the core can drop its connections bound to the old one.
+ */
+final class V2rayNetworkMonitor extends ConnectivityManager.NetworkCallback {
+    private static final String TAG = "V2rayNetworkMonitor";
+
+    interface Listener {
+        /**
+         * Called on the connectivity thread when {@code network} replaced the previous network or came
+         * back after being lost.
+         *
+         * @param detectedAt {@link SystemClock#elapsedRealtime} when the previous network was lost, or
+         *                   when the new one became available if it took over without a loss
+         */
+        void onHandover(Network network, String transport, long detectedAt);
+    }
+
+    private final VpnService service;
+    private final Listener listener;
+    private Network current;
+    private long lostAt = 0;
+    private boolean registered = false;
+
+    V2rayNetworkMonitor(final VpnService service, final Listener listener) {
+        this.service = service;
+        this.listener = listener;
+    }
+
+    synchronized void start() {
+        if (registered) {
+            return;
+        }
+        // the default request also asks for NOT_VPN, so the callback never reports our own interface
+        NetworkRequest request = new NetworkRequest.Builder()
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_NOT_RESTRICTED)
+                .build();
+        try {
+            getConnectivityManager().requestNetwork(request, this);
+            registered = true;
+        } catch (Exception e) {
+            Log.w(TAG, "can`t follow the underlying network => " + e);
+        }
+    }
+
+    synchronized void stop() {
+        if (!registered) {
+            return;
+        }
+        registered = false;
+        current = null;
+        try {
+            getConnectivityManager().unregisterNetworkCallback(this);
+        } catch (Exception e) {
+            // already unregistered
+        }
+    }
+
+    @Override
+    public void onAvailable(Network network) {
+        Network previous;
+        long detectedAt;
+        synchronized (this) {
+            if (!registered) {
+                return;
+            }
+            previous = current;
+            current = network;
+            detectedAt = lostAt > 0 ? lostAt : SystemClock.elapsedRealtime();
+            if (previous == null || (previous.equals(network) && lostAt == 0)) {
+                // the first report after connect
+                previous = null;
+            }
+            lostAt = 0;
+        }
+        service.setUnderlyingNetworks(new Network[] { network });
+        if (previous != null) {
+            String transport = getTransport(network);
+            Log.i(TAG, "default network changed => " + transport);
+            listener.onHandover(network, transport, detectedAt);
+        }
+    }
+
+    @Override
+    public void onCapabilitiesChanged(Network network, NetworkCapabilities networkCapabilities) {
+        if (network.equals(current)) {
+            // metering and bandwidth of the vpn follow the underlying network
+            service.setUnderlyingNetworks(new Network[] { network });
+        }
+    }
+
+    @Override
+    public void onLinkPropertiesChanged(Network network, LinkProperties linkProperties) {
+        if (network.equals(current)) {
+            service.setUnderlyingNetworks(new Network[] { network });
+        }
+    }
+
+    @Override
+    public void onLost(Network network) {
+        synchronized (this) {
+            if (!network.equals(current)) {
+                return;
+            }
+            lostAt = SystemClock.elapsedRealtime();
+        }
+        // null lets the system pick the default network until a new one is available
+        service.setUnderlyingNetworks(null);
+    }
+
+    private String getTransport(final Network network) {
+        try {
+            NetworkCapabilities capabilities = getConnectivityManager().getNetworkCapabilities(network);
+            if (capabilities != null && capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+                return "wifi";
+            }
+            if (capabilities != null && capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+                return "cellular";
+            }
+        } catch (Exception e) {
+            // fall through
+        }
+        return "other";
+    }
+
+    private ConnectivityManager getConnectivityManager() {
+        return (ConnectivityManager) service.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+}
@@ -7,6 +7,7 @@ import android.util.Log;
 
 import androidx.annotation.Nullable;
 
+import dev.amirzr.flutter_v2ray_client.v2ray.core.V2rayConnectTracer;
 import dev.amirzr.flutter_v2ray_client.v2ray.core.V2rayCoreManager;
 import dev.amirzr.flutter_v2ray_client.v2ray.interfaces.V2rayServicesListener;
 import dev.amirzr.flutter_v2ray_client.v2ray.utils.AppConfigs;
@@ -40,6 +41,8 @@ public class V2rayProxyOnlyService extends Service implements V2rayServicesListe
         }
 
         if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.START_SERVICE)) {
+            V2rayConnectTracer.getInstance().resume(intent.getSerializableExtra("CONNECT_TRACE"));
+            V2rayConnectTracer.getInstance().end("serviceIntent");
             V2rayConfig v2rayConfig = (V2rayConfig) intent.getSerializableExtra("V2RAY_CONFIG");
             if (v2rayConfig == null) {
                 Log.w("V2rayProxyOnlyService", "V2RAY_CONFIG is null, cannot start service");
@@ -57,6 +60,12 @@ public class V2rayProxyOnlyService extends Service implements V2rayServicesListe
                 return START_NOT_STICKY;
             }
         } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.STOP_SERVICE)) {
+            V2rayConnectTracer.getInstance().resume(intent.getSerializableExtra("CONNECT_TRACE"));
+            if (!V2rayConnectTracer.getInstance().isTracing(V2rayConnectTracer.DISCONNECT)) {
+                // stopped from the notification
+                V2rayConnectTracer.getInstance().begin(V2rayConnectTracer.DISCONNECT);
+            }
+            V2rayConnectTracer.getInstance().end("serviceIntent");
             V2rayCoreManager.getInstance().stopCore();
             AppConfigs.V2RAY_CONFIG = null;
         } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.MEASURE_DELAY)) {
@@ -71,6 +80,19 @@ public class V2rayProxyOnlyService extends Service implements V2rayServicesListe
                     Log.w("V2rayProxyOnlyService", "Failed to send delay broadcast", e);
                 }
             }, "MEASURE_CONNECTED_V2RAY_SERVER_DELAY").start();
+        } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.SWITCH_SERVER)) {
+            final V2rayConfig switchConfig = (V2rayConfig) intent.getSerializableExtra("V2RAY_CONFIG");
+            new Thread(() -> {
+                try {
+                    String packageName = getPackageName();
+                    Intent sendB = new Intent(packageName + ".V2RAY_SERVER_SWITCHED");
+                    sendB.setPackage(packageName);
+                    sendB.putExtra("ELAPSED", switchConfig != null ? V2rayCoreManager.getInstance().switchServer(switchConfig) : -1L);
+                    sendBroadcast(sendB);
+                } catch (Exception e) {
+                    Log.w("V2rayProxyOnlyService", "Failed to send switch broadcast", e);
+                }
+            }, "SWITCH_V2RAY_SERVER").start();
         } else {
             Log.w("V2rayProxyOnlyService", "Unknown command received, stopping service");
             this.onDestroy();
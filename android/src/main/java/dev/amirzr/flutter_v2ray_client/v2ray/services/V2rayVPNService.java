@@ -4,12 +4,21 @@ import android.app.Service;
 import android.content.Intent;
 import android.net.LocalSocket;
 import android.net.LocalSocketAddress;
+import android.net.Network;
+import android.net.ProxyInfo;
 import android.net.VpnService;
 import android.os.Build;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.system.Os;
 import android.util.Log;
 
+import dev.amirzr.flutter_v2ray_client.v2ray.core.V2rayConnectTracer;
 import dev.amirzr.flutter_v2ray_client.v2ray.core.V2rayCoreManager;
+import dev.amirzr.flutter_v2ray_client.v2ray.core.V2rayDnsProber;
 import dev.amirzr.flutter_v2ray_client.v2ray.interfaces.V2rayServicesListener;
 import dev.amirzr.flutter_v2ray_client.v2ray.utils.AppConfigs;
 import dev.amirzr.flutter_v2ray_client.v2ray.utils.V2rayConfig;
@@ -20,15 +29,55 @@ import org.json.JSONObject;
 
 import java.io.File;
 import java.io.FileDescriptor;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class V2rayVPNService extends VpnService implements V2rayServicesListener {
-    private ParcelFileDescriptor mInterface;
-    private Process process;
+    public static final String EVENT_TUN_HANDOFF_FAILED = "TUN_HANDOFF_FAILED";
+    public static final String EVENT_TUN2SOCKS_CRASH_LOOP = "TUN2SOCKS_CRASH_LOOP";
+    public static final String EVENT_MTU_SELECTED = "MTU_SELECTED";
+    public static final String EVENT_NETWORK_HANDOVER = "NETWORK_HANDOVER";
+    public static final String EVENT_HEALTH_RECOVERY = "HEALTH_RECOVERY";
+    private static final String SOCK_PATH = "sock_path";
+    private static final String XRAY_TUN_FD_ENV = "xray.tun.fd";
+    /**
+     * Unique local /126 of the tun interface, the tun2socks side is {@code ::2}.
+     */
+    private static final String TUN_IPV6_ADDRESS = "fd66:2626:2626::1";
+    private static final String TUN2SOCKS_IPV6_ADDRESS = "fd66:2626:2626::2";
+    /**
+     * Hosts that skip the http proxy: loopback, mDNS names and the private IPv4 ranges.
+     */
+    private static final List<String> HTTP_PROXY_EXCLUSIONS = Arrays.asList(
+            "localhost", "*.local", "127.*", "[::1]", "10.*", "169.254.*", "192.168.*",
+            "172.16.*", "172.17.*", "172.18.*", "172.19.*", "172.20.*", "172.21.*", "172.22.*", "172.23.*",
+            "172.24.*", "172.25.*", "172.26.*", "172.27.*", "172.28.*", "172.29.*", "172.30.*", "172.31.*");
+    private static final long FD_HANDOFF_TIMEOUT_MILLIS = 5000L;
+    private static final long FD_HANDOFF_RETRY_MILLIS = 10L;
+    private static final int TUNNEL_STARTED = 0;
+    private static final int TUN_FAILED = 1;
+    private static final int CORE_FAILED = 2;
+    private volatile ParcelFileDescriptor mInterface;
+    private volatile Tun2socksSupervisor tun2socksSupervisor;
     private V2rayConfig v2rayConfig;
-    private boolean isRunning = true;
+    private volatile boolean isRunning = true;
+    private final ExecutorService connectPipeline = Executors.newCachedThreadPool();
+    private volatile Future<Boolean> tunSetup;
+    private final List<String> dnsServers = new ArrayList<>();
+    private final V2rayNetworkMonitor networkMonitor = new V2rayNetworkMonitor(this, this::onNetworkHandover);
+    private final AtomicBoolean handoverPending = new AtomicBoolean(false);
+    private V2rayHealthWatchdog healthWatchdog;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     @Override
     public void onCreate() {
@@ -56,6 +105,8 @@ public class V2rayVPNService extends VpnService implements V2rayServicesListener
         }
 
         if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.START_SERVICE)) {
+            V2rayConnectTracer.getInstance().resume(intent.getSerializableExtra("CONNECT_TRACE"));
+            V2rayConnectTracer.getInstance().end("serviceIntent");
             v2rayConfig = (V2rayConfig) intent.getSerializableExtra("V2RAY_CONFIG");
             if (v2rayConfig == null) {
                 Log.w("V2rayVPNService", "V2RAY_CONFIG is null, cannot start service");
@@ -65,14 +116,28 @@ public class V2rayVPNService extends VpnService implements V2rayServicesListener
             if (V2rayCoreManager.getInstance().isV2rayCoreRunning()) {
                 V2rayCoreManager.getInstance().stopCore();
             }
-            if (V2rayCoreManager.getInstance().startCore(v2rayConfig)) {
+            int result = startTunnel();
+            if (result == TUNNEL_STARTED) {
                 Log.i("V2rayVPNService", "onStartCommand success => v2ray core started.");
+                V2rayDnsProber.getInstance().start(dnsServers, v2rayConfig.LOCAL_SOCKS5_PORT);
+                networkMonitor.start();
+                startHealthWatchdog();
+            } else if (result == TUN_FAILED) {
+                Log.e("V2rayVPNService", "Failed to set up vpn interface");
+                stopAllProcess();
+                return START_NOT_STICKY;
             } else {
                 Log.e("V2rayVPNService", "Failed to start v2ray core");
                 this.onDestroy();
                 return START_NOT_STICKY;
             }
         } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.STOP_SERVICE)) {
+            V2rayConnectTracer.getInstance().resume(intent.getSerializableExtra("CONNECT_TRACE"));
+            if (!V2rayConnectTracer.getInstance().isTracing(V2rayConnectTracer.DISCONNECT)) {
+                // stopped from the notification
+                V2rayConnectTracer.getInstance().begin(V2rayConnectTracer.DISCONNECT);
+            }
+            V2rayConnectTracer.getInstance().end("serviceIntent");
             V2rayCoreManager.getInstance().stopCore();
             AppConfigs.V2RAY_CONFIG = null;
         } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.MEASURE_DELAY)) {
@@ -87,6 +152,19 @@ public class V2rayVPNService extends VpnService implements V2rayServicesListener
                     Log.w("V2rayVPNService", "Failed to send delay broadcast", e);
                 }
             }, "MEASURE_CONNECTED_V2RAY_SERVER_DELAY").start();
+        } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.SWITCH_SERVER)) {
+            final V2rayConfig switchConfig = (V2rayConfig) intent.getSerializableExtra("V2RAY_CONFIG");
+            new Thread(() -> {
+                try {
+                    String packageName = getPackageName();
+                    Intent sendB = new Intent(packageName + ".V2RAY_SERVER_SWITCHED");
+                    sendB.setPackage(packageName);
+                    sendB.putExtra("ELAPSED", switchConfig != null ? V2rayCoreManager.getInstance().switchServer(switchConfig) : -1L);
+                    sendBroadcast(sendB);
+                } catch (Exception e) {
+                    Log.w("V2rayVPNService", "Failed to send switch broadcast", e);
+                }
+            }, "SWITCH_V2RAY_SERVER").start();
         } else {
             Log.w("V2rayVPNService", "Unknown command received, stopping service");
             this.onDestroy();
@@ -102,8 +180,13 @@ public class V2rayVPNService extends VpnService implements V2rayServicesListener
             Log.w("V2rayVPNService", "stopForeground failed (service may not be in foreground)", e);
         }
         isRunning = false;
-        if (process != null) {
-            process.destroy();
+        V2rayDnsProber.getInstance().stop();
+        networkMonitor.stop();
+        stopHealthWatchdog();
+        if (tun2socksSupervisor != null) {
+            V2rayConnectTracer.getInstance().start("tun2socksStop");
+            tun2socksSupervisor.stop();
+            V2rayConnectTracer.getInstance().end("tun2socksStop");
         }
         V2rayCoreManager.getInstance().stopCore();
         try {
@@ -113,36 +196,230 @@ public class V2rayVPNService extends VpnService implements V2rayServicesListener
             Log.e("CANT_STOP", "SELF");
         }
         try {
+            V2rayConnectTracer.getInstance().start("closeInterface");
             mInterface.close();
+            V2rayConnectTracer.getInstance().end("closeInterface");
         } catch (Exception e) {
             // ignored
         }
+        if (V2rayConnectTracer.getInstance().isTracing(V2rayConnectTracer.DISCONNECT)) {
+            V2rayConnectTracer.getInstance().finish(true);
+        }
+    }
+
+    /**
+     * Brings up the tun interface alongside the core loop for {@link #v2rayConfig}.
+     *
+     * @return {@link #TUNNEL_STARTED}, {@link #TUN_FAILED} or {@link #CORE_FAILED}
+     */
+    private int startTunnel() {
+        tunSetup = startTunPipeline();
+        boolean tunReady = true;
+        if (v2rayConfig.TUN_ENGINE == AppConfigs.TUN_ENGINES.XRAY) {
+            // the core's tun inbound reads the fd at start, so here the interface comes first
+            tunReady = awaitTunSetup();
+        }
+        boolean coreStarted = tunReady && V2rayCoreManager.getInstance().startCore(v2rayConfig);
+        tunReady = awaitTunSetup();
+        tunSetup = null;
+        if (!tunReady) {
+            return TUN_FAILED;
+        }
+        return coreStarted ? TUNNEL_STARTED : CORE_FAILED;
+    }
+
+    /**
+     * Starts the connect stages that don't need the core loop, so they overlap with {@code startLoop}:
+     * the tun interface, tun2socks spawn and fd handoff. The core resolves the server address itself
+     * on its protected sockets, so the tunnel capturing dns doesn't affect it.
+     *
+     * @return completes with whether the tun interface is up and handed to tun2socks
+     */
+    private Future<Boolean> startTunPipeline() {
+        return connectPipeline.submit(this::establishTun);
+    }
+
+    /**
+     * Restarts the core loop off the connectivity thread after a network handover, so its connections
+     * bound to the old network are dropped at once, and reports the time from the loss of the old
+     * network until the core runs again. Handovers arriving during a restart are covered by it.
+     */
+    private void onNetworkHandover(final Network network, final String transport, final long detectedAt) {
+        if (!handoverPending.compareAndSet(false, true)) {
+            return;
+        }
+        connectPipeline.execute(() -> {
+            handoverPending.set(false);
+            if (!isRunning) {
+                return;
+            }
+            long restart = V2rayCoreManager.getInstance().restartCore();
+            long recovery = restart < 0 ? -1 : SystemClock.elapsedRealtime() - detectedAt;
+            String detail;
+            try {
+                detail = new JSONObject()
+                        .put("transport", transport)
+                        .put("restart", restart)
+                        .put("recovery", recovery)
+                        .toString();
+            } catch (JSONException e) {
+                detail = transport;
+            }
+            V2rayCoreManager.getInstance().sendStatusEvent(EVENT_NETWORK_HANDOVER, detail);
+            if (restart < 0) {
+                Log.e("V2rayVPNService", "core restart after handover to " + transport + " failed");
+                stopAllProcess();
+            } else {
+                Log.i("V2rayVPNService", "handover to " + transport + " recovered in " + recovery + "ms");
+            }
+        });
+    }
+
+    private void startHealthWatchdog() {
+        stopHealthWatchdog();
+        if (v2rayConfig.STALL_WINDOW <= 0) {
+            return;
+        }
+        healthWatchdog = new V2rayHealthWatchdog(v2rayConfig.STALL_WINDOW,
+                v2rayConfig.TUN_ENGINE == AppConfigs.TUN_ENGINES.TUN2SOCKS, new V2rayHealthWatchdog.Signals() {
+                    @Override
+                    public long[] getTraffic() {
+                        V2rayConfig connected = V2rayCoreManager.getInstance().getConnectedConfig();
+                        return connected != null && connected.ENABLE_TRAFFIC_STATICS
+                                ? V2rayCoreManager.getInstance().getTotalTraffic() : null;
+                    }
+
+                    @Override
+                    public long measureDelay() {
+                        return V2rayCoreManager.getInstance().getConnectedV2rayServerDelay();
+                    }
+
+                    @Override
+                    public boolean isTun2socksAlive() {
+                        Tun2socksSupervisor supervisor = tun2socksSupervisor;
+                        return supervisor != null && supervisor.isAlive();
+                    }
+                }, this::recoverStall);
+        healthWatchdog.start();
+    }
+
+    private void stopHealthWatchdog() {
+        if (healthWatchdog != null) {
+            healthWatchdog.stop();
+            healthWatchdog = null;
+        }
+    }
 
+    /**
+     * Runs a rung of the health watchdog's recovery ladder, on its thread.
+     *
+     * @return the action time in milliseconds, -1 on failure
+     */
+    private long recoverStall(final V2rayHealthWatchdog.Actions action) {
+        if (!isRunning) {
+            return -1;
+        }
+        long start = SystemClock.elapsedRealtime();
+        switch (action) {
+            case RESET_CONNECTIONS:
+                // a new tun2socks drops every app connection at once, apps reconnect through the core
+                return runTun2socks() ? SystemClock.elapsedRealtime() - start : -1;
+            case RESTART_CORE:
+                return V2rayCoreManager.getInstance().restartCore();
+            default:
+                // like onStartCommand on the main thread, the core's statics timer needs a looper
+                FutureTask<Long> task = new FutureTask<>(() -> {
+                    if (!isRunning) {
+                        return -1L;
+                    }
+                    if (reconnect()) {
+                        return SystemClock.elapsedRealtime() - start;
+                    }
+                    Log.e("V2rayVPNService", "reconnect after stall failed");
+                    stopAllProcess();
+                    return -1L;
+                });
+                mainHandler.post(task);
+                try {
+                    return task.get();
+                } catch (Exception e) {
+                    // the watchdog was stopped meanwhile
+                    return -1;
+                }
+        }
+    }
+
+    /**
+     * Tears the tun interface, tun2socks and the core loop down and sets them up again with the
+     * connected config, while the service stays up.
+     */
+    private boolean reconnect() {
+        V2rayConfig connected = V2rayCoreManager.getInstance().getConnectedConfig();
+        if (connected != null) {
+            v2rayConfig = connected;
+        }
+        V2rayCoreManager.getInstance().stopLoop();
+        synchronized (this) {
+            if (tun2socksSupervisor != null) {
+                tun2socksSupervisor.stop();
+                tun2socksSupervisor = null;
+            }
+        }
+        return startTunnel() == TUNNEL_STARTED;
+    }
+
+    private boolean awaitTunSetup() {
+        Future<Boolean> pending = tunSetup;
+        if (pending == null) {
+            return true;
+        }
+        try {
+            return pending.get();
+        } catch (Exception e) {
+            Log.e("VPN_SERVICE", "tun setup failed =>", e);
+            return false;
+        }
     }
 
     private void setup() {
+        if (!establishTun()) {
+            stopAllProcess();
+        }
+    }
+
+    /**
+     * Establishes the tun interface and starts tun2socks on it.
+     *
+     * @return false if the interface or tun2socks could not be started
+     */
+    private boolean establishTun() {
         Intent prepare_intent = prepare(this);
         if (prepare_intent != null) {
-            return;
+            return true;
         }
         Builder builder = new Builder();
         builder.setSession(v2rayConfig.REMARK);
-        builder.setMtu(1500);
+        builder.setMtu(v2rayConfig.MTU);
         builder.addAddress("26.26.26.1", 30);
+        if (v2rayConfig.IPV6_MODE != AppConfigs.IPV6_MODES.OFF) {
+            // in block mode IPv6 is still captured, so it can't leak, and refused by the core's block rule
+            builder.addAddress(TUN_IPV6_ADDRESS, 126);
+        }
 
-        if (v2rayConfig.BYPASS_SUBNETS == null || v2rayConfig.BYPASS_SUBNETS.isEmpty()) {
-            builder.addRoute("0.0.0.0", 0);
-        } else {
-            for (String subnet : v2rayConfig.BYPASS_SUBNETS) {
-                String[] parts = subnet.split("/");
-                if (parts.length == 2) {
-                    String address = parts[0];
-                    int prefixLength = Integer.parseInt(parts[1]);
-                    builder.addRoute(address, prefixLength);
+        // compiled when the config was parsed: merged, minus the excluded subnets
+        for (String route : v2rayConfig.ROUTES) {
+            String[] parts = route.split("/");
+            builder.addRoute(parts[0], Integer.parseInt(parts[1]));
+        }
+        if (v2rayConfig.ALLOWED_APPS != null) {
+            for (int i = 0; i < v2rayConfig.ALLOWED_APPS.size(); i++) {
+                try {
+                    builder.addAllowedApplication(v2rayConfig.ALLOWED_APPS.get(i));
+                } catch (Exception e) {
+                    // ignore
                 }
             }
-        }
-        if (v2rayConfig.BLOCKED_APPS != null) {
+        } else if (v2rayConfig.BLOCKED_APPS != null) {
             for (int i = 0; i < v2rayConfig.BLOCKED_APPS.size(); i++) {
                 try {
                     builder.addDisallowedApplication(v2rayConfig.BLOCKED_APPS.get(i));
@@ -151,6 +428,7 @@ public class V2rayVPNService extends VpnService implements V2rayServicesListener
                 }
             }
         }
+        dnsServers.clear();
         try {
             JSONObject json = new JSONObject(v2rayConfig.V2RAY_FULL_JSON_CONFIG);
             if (json.has("dns")) {
@@ -158,21 +436,23 @@ public class V2rayVPNService extends VpnService implements V2rayServicesListener
                 if (dnsObject.has("servers")) {
                     JSONArray serversArray = dnsObject.getJSONArray("servers");
                     for (int i = 0; i < serversArray.length(); i++) {
-                        try {
-                            Object entry = serversArray.get(i);
-                            if (entry instanceof String) {
-                                builder.addDnsServer((String) entry);
-                            } else if (entry instanceof JSONObject) {
-                                JSONObject obj = (JSONObject) entry;
-                                if (obj.has("address")) {
-                                    builder.addDnsServer(obj.getString("address"));
-                                }
-                            }
-                        } catch (Exception ignored) {
+                        Object entry = serversArray.get(i);
+                        String address = entry instanceof JSONObject
+                                ? ((JSONObject) entry).optString("address", null) : String.valueOf(entry);
+                        // only plain ip servers can be handed to the interface, not doh urls or "localhost"
+                        if (address != null && address.matches("[0-9a-fA-F:.]+") && address.matches(".*[.:].*")) {
+                            dnsServers.add(address);
                         }
                     }
                 }
             }
+            // ordered by the measurements of earlier connects, failing servers left out
+            for (String server : V2rayDnsProber.getInstance().rank(dnsServers)) {
+                try {
+                    builder.addDnsServer(server);
+                } catch (Exception ignored) {
+                }
+            }
         } catch (Exception e) {
             // If parsing fails, add sane fallback DNS
             try {
@@ -191,83 +471,152 @@ public class V2rayVPNService extends VpnService implements V2rayServicesListener
         }
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
             builder.setMetered(false);
+            if (v2rayConfig.HTTP_PROXY && v2rayConfig.HAS_HTTP_INBOUND) {
+                // proxy aware apps talk to the http inbound directly, skipping tun2socks and the socks hop
+                builder.setHttpProxy(ProxyInfo.buildDirectProxy("127.0.0.1", v2rayConfig.LOCAL_HTTP_PORT,
+                        HTTP_PROXY_EXCLUSIONS));
+            }
         }
 
         try {
+            V2rayConnectTracer.getInstance().start("establish");
             mInterface = builder.establish();
+            V2rayConnectTracer.getInstance().end("establish");
             isRunning = true;
-            runTun2socks();
+            V2rayCoreManager.getInstance().sendStatusEvent(EVENT_MTU_SELECTED, String.valueOf(v2rayConfig.MTU));
+            if (v2rayConfig.TUN_ENGINE == AppConfigs.TUN_ENGINES.XRAY) {
+                // the tun inbound takes the fd as is and leaves closing it to mInterface
+                Os.setenv(XRAY_TUN_FD_ENV, String.valueOf(mInterface.getFd()), true);
+                return true;
+            }
+            return runTun2socks();
         } catch (Exception e) {
             Log.e("VPN_SERVICE", "Failed to establish VPN interface", e);
-            stopAllProcess();
+            return false;
         }
+    }
 
+    private synchronized boolean runTun2socks() {
+        if (tun2socksSupervisor != null) {
+            tun2socksSupervisor.stop();
+        }
+        tun2socksSupervisor = new Tun2socksSupervisor(this::startTun2socks, reason -> {
+            V2rayCoreManager.getInstance().sendStatusEvent(EVENT_TUN2SOCKS_CRASH_LOOP, reason);
+            stopAllProcess();
+        });
+        return tun2socksSupervisor.start();
     }
 
-    private void runTun2socks() {
+    /**
+     * Spawns tun2socks and starts handing it the tun fd, the {@link Tun2socksSupervisor} launcher.
+     */
+    private Process startTun2socks() throws Exception {
         ArrayList<String> cmd = new ArrayList<>(
                 Arrays.asList(new File(getApplicationInfo().nativeLibraryDir, "libtun2socks.so").getAbsolutePath(),
                         "--netif-ipaddr", "26.26.26.2",
                         "--netif-netmask", "255.255.255.252",
                         "--socks-server-addr", "127.0.0.1:" + v2rayConfig.LOCAL_SOCKS5_PORT,
-                        "--tunmtu", "1500",
-                        "--sock-path", "sock_path",
+                        "--tunmtu", String.valueOf(v2rayConfig.MTU),
+                        "--sock-path", SOCK_PATH,
                         "--enable-udprelay",
-                        "--loglevel", "error"));
+                        "--loglevel", v2rayConfig.TUN2SOCKS_LOG_LEVEL));
+        if (v2rayConfig.IPV6_MODE != AppConfigs.IPV6_MODES.OFF) {
+            cmd.add("--netif-ip6addr");
+            cmd.add(TUN2SOCKS_IPV6_ADDRESS);
+        }
+        File sockFile = new File(getApplicationContext().getFilesDir(), SOCK_PATH);
+        // a socket file left by the previous tun2socks would look ready before the new one listens
+        if (sockFile.exists() && !sockFile.delete()) {
+            Log.w("SOCK_FILE", "can`t delete stale sock file [" + sockFile + "]");
+        }
+        final CountDownLatch sockCreated = new CountDownLatch(1);
+        @SuppressWarnings("deprecation") // FileObserver(File, int) needs API 29
+        final FileObserver sockObserver = new FileObserver(sockFile.getParent(), FileObserver.CREATE) {
+            @Override
+            public void onEvent(int event, String path) {
+                if (SOCK_PATH.equals(path)) {
+                    sockCreated.countDown();
+                }
+            }
+        };
+        sockObserver.startWatching();
         try {
             ProcessBuilder processBuilder = new ProcessBuilder(cmd);
             processBuilder.redirectErrorStream(true);
-            process = processBuilder.directory(getApplicationContext().getFilesDir()).start();
-            new Thread(() -> {
-                try {
-                    process.waitFor();
-                    if (isRunning) {
-                        runTun2socks();
-                    }
-                } catch (InterruptedException e) {
-                    // ignore
-                }
-            }, "Tun2socks_Thread").start();
-            sendFileDescriptor();
+            V2rayConnectTracer.getInstance().start("tun2socksSpawn");
+            Process process = processBuilder.directory(getApplicationContext().getFilesDir()).start();
+            V2rayConnectTracer.getInstance().end("tun2socksSpawn");
+            Tun2socksLogReader.start(process);
+            sendFileDescriptor(sockFile, sockCreated, sockObserver);
+            return process;
         } catch (Exception e) {
+            sockObserver.stopWatching();
             Log.e("VPN_SERVICE", "FAILED=>", e);
-            this.onDestroy();
+            throw e;
         }
     }
 
-    private void sendFileDescriptor() {
-        String localSocksFile = new File(getApplicationContext().getFilesDir(), "sock_path").getAbsolutePath();
+    /**
+     * Hands the tun fd to tun2socks as soon as its socket file is created, retrying the connect only
+     * for the short window between the file being bound and tun2socks listening on it. If the handoff
+     * doesn't complete within {@link #FD_HANDOFF_TIMEOUT_MILLIS} the vpn is torn down, since it would
+     * have no data path.
+     */
+    private void sendFileDescriptor(final File sockFile, final CountDownLatch sockCreated,
+            final FileObserver sockObserver) {
         FileDescriptor tunFd = mInterface.getFileDescriptor();
+        V2rayConnectTracer.getInstance().start("sendFileDescriptor");
         new Thread(() -> {
-            int tries = 0;
-            while (true) {
-                try {
-                    Thread.sleep(50L * tries);
-                    LocalSocket clientLocalSocket = new LocalSocket();
-                    clientLocalSocket
-                            .connect(new LocalSocketAddress(localSocksFile, LocalSocketAddress.Namespace.FILESYSTEM));
-                    if (!clientLocalSocket.isConnected()) {
-                        Log.e("SOCK_FILE", "Unable to connect to localSocksFile [" + localSocksFile + "]");
-                    } else {
-                        Log.e("SOCK_FILE", "connected to sock file [" + localSocksFile + "]");
+            long start = SystemClock.elapsedRealtime();
+            long deadline = start + FD_HANDOFF_TIMEOUT_MILLIS;
+            Exception failure = null;
+            boolean sent = false;
+            try {
+                if (!sockFile.exists()) {
+                    sockCreated.await(FD_HANDOFF_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                while (!sent && isRunning && SystemClock.elapsedRealtime() < deadline) {
+                    try {
+                        sendFileDescriptor(sockFile, tunFd);
+                        sent = true;
+                    } catch (IOException e) {
+                        failure = e;
+                        Thread.sleep(FD_HANDOFF_RETRY_MILLIS);
                     }
-                    OutputStream clientOutStream = clientLocalSocket.getOutputStream();
-                    clientLocalSocket.setFileDescriptorsForSend(new FileDescriptor[] { tunFd });
-                    clientOutStream.write(32);
-                    clientLocalSocket.setFileDescriptorsForSend(null);
-                    clientLocalSocket.shutdownOutput();
-                    clientLocalSocket.close();
-                    break;
-                } catch (Exception e) {
-                    Log.e(V2rayVPNService.class.getSimpleName(), "sendFd failed =>", e);
-                    if (tries > 5)
-                        break;
-                    tries += 1;
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                sockObserver.stopWatching();
+            }
+            if (sent) {
+                V2rayConnectTracer.getInstance().end("sendFileDescriptor");
+                Log.i("SOCK_FILE", "tun fd handed to tun2socks in " + (SystemClock.elapsedRealtime() - start) + "ms");
+            } else if (isRunning) {
+                Log.e(V2rayVPNService.class.getSimpleName(), "sendFd failed => no handoff within "
+                        + FD_HANDOFF_TIMEOUT_MILLIS + "ms", failure);
+                V2rayCoreManager.getInstance().sendStatusEvent(EVENT_TUN_HANDOFF_FAILED,
+                        failure != null ? failure.toString() : "sock file not created");
+                stopAllProcess();
             }
         }, "sendFd_Thread").start();
     }
 
+    private static void sendFileDescriptor(final File sockFile, final FileDescriptor tunFd) throws IOException {
+        LocalSocket clientLocalSocket = new LocalSocket();
+        try {
+            clientLocalSocket.connect(new LocalSocketAddress(sockFile.getAbsolutePath(),
+                    LocalSocketAddress.Namespace.FILESYSTEM));
+            OutputStream clientOutStream = clientLocalSocket.getOutputStream();
+            clientLocalSocket.setFileDescriptorsForSend(new FileDescriptor[] { tunFd });
+            clientOutStream.write(32);
+            clientLocalSocket.setFileDescriptorsForSend(null);
+            clientLocalSocket.shutdownOutput();
+        } finally {
+            clientLocalSocket.close();
+        }
+    }
+
     @Override
     public void onDestroy() {
         Log.i("V2rayVPNService", "onDestroy called - cleaning up resources");
@@ -289,11 +638,15 @@ public class V2rayVPNService extends VpnService implements V2rayServicesListener
             Log.e("V2rayVPNService", "Error stopping foreground in onDestroy", e);
         }
         
+        V2rayDnsProber.getInstance().stop();
+        networkMonitor.stop();
+        stopHealthWatchdog();
+
         // Destroy tun2socks process
         try {
-            if (process != null) {
-                process.destroy();
-                process = null;
+            if (tun2socksSupervisor != null) {
+                tun2socksSupervisor.stop();
+                tun2socksSupervisor = null;
             }
         } catch (Exception e) {
             Log.e("V2rayVPNService", "Error destroying process in onDestroy", e);
@@ -329,7 +682,12 @@ public class V2rayVPNService extends VpnService implements V2rayServicesListener
 
     @Override
     public void startService() {
-        setup();
+        if (tunSetup == null) {
+            setup();
+        } else {
+            // the tun pipeline was started alongside the core loop, startup completes once it is done
+            awaitTunSetup();
+        }
     }
 
     @Override
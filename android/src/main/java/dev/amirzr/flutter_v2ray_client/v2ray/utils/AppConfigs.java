@@ -1,5 +1,7 @@
 package dev.amirzr.flutter_v2ray_client.v2ray.utils;
 
+import java.util.ArrayList;
+
 public class AppConfigs {
 
     public static V2RAY_CONNECTION_MODES V2RAY_CONNECTION_MODE = V2RAY_CONNECTION_MODES.VPN_TUN;
@@ -10,11 +12,32 @@ public class AppConfigs {
     public static boolean ENABLE_TRAFFIC_AND_SPEED_STATICS = true;
     public static String DELAY_URL;
     public static String NOTIFICATION_DISCONNECT_BUTTON_NAME;
+    public static ArrayList<String> FAILOVER_CONFIGS = null;
+    public static String FAILOVER_URL = "https://google.com/generate_204";
+    public static long FAILOVER_CHECK_INTERVAL = 10000;
+    public static int FAILOVER_MAX_FAILURES = 3;
+    public static long FAILOVER_LATENCY_THRESHOLD = 0;
+    public static TUN_ENGINES TUN_ENGINE = TUN_ENGINES.TUN2SOCKS;
+    public static String TUN2SOCKS_LOG_LEVEL = "error";
+    /**
+     * MTU of the tun interface, 0 picks it from the underlying network.
+     */
+    public static int MTU = 1500;
+    public static IPV6_MODES IPV6_MODE = IPV6_MODES.OFF;
+    public static ArrayList<String> EXCLUDED_SUBNETS = null;
+    public static boolean BYPASS_LAN = false;
+    public static ArrayList<String> ALLOWED_APPS = null;
+    public static boolean HTTP_PROXY = false;
+    /**
+     * Milliseconds without data flow before the health watchdog recovers the session, 0 disables it.
+     */
+    public static long STALL_WINDOW = 0;
 
     public enum V2RAY_SERVICE_COMMANDS {
         START_SERVICE,
         STOP_SERVICE,
-        MEASURE_DELAY
+        MEASURE_DELAY,
+        SWITCH_SERVER
     }
 
     public enum V2RAY_STATES {
@@ -27,4 +50,33 @@ public class AppConfigs {
         VPN_TUN,
         PROXY_ONLY
     }
+
+    public enum TUN_ENGINES {
+        TUN2SOCKS,
+        XRAY
+    }
+
+    public enum IPV6_MODES {
+        OFF,
+        TUNNEL,
+        BLOCK
+    }
+
+    public enum DELAY_PROBE_TYPES {
+        TCP,
+        TLS,
+        HTTP
+    }
+
+    public enum BALANCER_STRATEGIES {
+        RANDOM("random"),
+        LEAST_PING("leastPing"),
+        LEAST_LOAD("leastLoad");
+
+        public final String type;
+
+        BALANCER_STRATEGIES(String type) {
+            this.type = type;
+        }
+    }
 }
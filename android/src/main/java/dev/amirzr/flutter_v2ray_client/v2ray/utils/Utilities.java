@@ -1,11 +1,18 @@
 package dev.amirzr.flutter_v2ray_client.v2ray.utils;
 
 import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.Build;
 import android.util.Log;
 
 import dev.amirzr.flutter_v2ray_client.v2ray.core.V2rayCoreManager;
+import dev.amirzr.flutter_v2ray_client.v2ray.core.V2rayInstalledApps;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
@@ -13,9 +20,25 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
 
 public class Utilities {
+    public static final int DEFAULT_MTU = 1500;
+    /**
+     * Bounds of the automatic MTU, 1280 is the IPv6 minimum.
+     */
+    public static final int MIN_AUTO_MTU = 1280;
+    public static final int MAX_AUTO_MTU = 1500;
+    /**
+     * Outer IPv6 + UDP header and the per-packet framing of the udp based transports.
+     */
+    private static final int PACKET_TRANSPORT_OVERHEAD = 80;
 
     public static void CopyFiles(InputStream src, File dst) throws IOException {
         try (OutputStream out = new FileOutputStream(dst)) {
@@ -60,14 +83,308 @@ public class Utilities {
     }
 
 
-    public static V2rayConfig parseV2rayJsonFile(final String remark, String config, final ArrayList<String> blockedApplication, final ArrayList<String> bypass_subnets) {
+    /**
+     * Returns the server entry ({@code address}, {@code port}) of the first outbound, taken from
+     * {@code vnext} (vmess/vless) or {@code servers} (trojan/shadowsocks/socks).
+     */
+    public static JSONObject getOutboundServer(final JSONObject config_json) throws JSONException {
+        JSONObject settings = config_json.getJSONArray("outbounds").getJSONObject(0).getJSONObject("settings");
+        try {
+            return settings.getJSONArray("vnext").getJSONObject(0);
+        } catch (JSONException e) {
+            return settings.getJSONArray("servers").getJSONObject(0);
+        }
+    }
+
+    /**
+     * Returns a stable fingerprint of the {@code outbounds} section of a config: the sha-256 of its
+     * json with object keys sorted, so formatting and key order of the source string don't matter.
+     * Returns null when the config has no parsable outbounds.
+     */
+    public static String getOutboundFingerprint(final String config) {
+        try {
+            return getOutboundFingerprint(new JSONObject(config));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public static String getOutboundFingerprint(final JSONObject config_json) {
+        try {
+            return sha256Hex(canonicalJson(config_json.getJSONArray("outbounds")));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the outbound at {@code index} followed by every outbound it reaches through
+     * {@code proxySettings.tag} or {@code streamSettings.sockopt.dialerProxy}.
+     */
+    public static List<JSONObject> getOutboundChain(final JSONArray outbounds, final int index) throws JSONException {
+        List<JSONObject> chain = new ArrayList<>();
+        JSONObject outbound = outbounds.getJSONObject(index);
+        while (outbound != null && !chain.contains(outbound)) {
+            chain.add(outbound);
+            String next = null;
+            JSONObject proxySettings = outbound.optJSONObject("proxySettings");
+            if (proxySettings != null) {
+                next = proxySettings.optString("tag", null);
+            }
+            JSONObject streamSettings = outbound.optJSONObject("streamSettings");
+            if (next == null && streamSettings != null && streamSettings.optJSONObject("sockopt") != null) {
+                next = streamSettings.optJSONObject("sockopt").optString("dialerProxy", null);
+            }
+            outbound = null;
+            for (int i = 0; next != null && i < outbounds.length(); i++) {
+                JSONObject candidate = outbounds.optJSONObject(i);
+                if (candidate != null && next.equals(candidate.optString("tag"))) {
+                    outbound = candidate;
+                    break;
+                }
+            }
+        }
+        return chain;
+    }
+
+    private static String canonicalJson(final Object value) throws Exception {
+        StringBuilder builder = new StringBuilder();
+        appendCanonicalJson(builder, value);
+        return builder.toString();
+    }
+
+    private static void appendCanonicalJson(final StringBuilder builder, final Object value) throws Exception {
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            List<String> keys = new ArrayList<>();
+            Iterator<String> iterator = object.keys();
+            while (iterator.hasNext()) {
+                keys.add(iterator.next());
+            }
+            Collections.sort(keys);
+            builder.append('{');
+            for (int i = 0; i < keys.size(); i++) {
+                if (i > 0) builder.append(',');
+                builder.append(JSONObject.quote(keys.get(i))).append(':');
+                appendCanonicalJson(builder, object.get(keys.get(i)));
+            }
+            builder.append('}');
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            builder.append('[');
+            for (int i = 0; i < array.length(); i++) {
+                if (i > 0) builder.append(',');
+                appendCanonicalJson(builder, array.get(i));
+            }
+            builder.append(']');
+        } else if (value instanceof String) {
+            builder.append(JSONObject.quote((String) value));
+        } else {
+            builder.append(value == JSONObject.NULL ? "null" : String.valueOf(value));
+        }
+    }
+
+    public static String sha256Hex(final String value) throws Exception {
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Picks the MTU of the tun interface: {@code requested} when set, otherwise the MTU of the
+     * underlying network (API 29+, {@link #DEFAULT_MTU} when unknown) minus the encapsulation overhead
+     * of the outbound, clamped to {@link #MIN_AUTO_MTU}..{@link #MAX_AUTO_MTU}. Only udp based
+     * transports wrap whole packets; stream transports (tcp, ws, grpc, ...) carry the payload of
+     * connections terminated locally, so they add no per-packet overhead.
+     *
+     * @param requested the MTU option, 0 for automatic
+     */
+    public static int selectMtu(final Context context, final int requested, final JSONObject config_json) {
+        if (requested > 0) {
+            return requested;
+        }
+        int mtu = DEFAULT_MTU;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            try {
+                ConnectivityManager connectivityManager = (ConnectivityManager) context
+                        .getSystemService(Context.CONNECTIVITY_SERVICE);
+                Network network = connectivityManager.getActiveNetwork();
+                NetworkCapabilities capabilities = connectivityManager.getNetworkCapabilities(network);
+                LinkProperties linkProperties = connectivityManager.getLinkProperties(network);
+                // while reconnecting the active network may still be our own vpn
+                if (capabilities != null && !capabilities.hasTransport(NetworkCapabilities.TRANSPORT_VPN)
+                        && linkProperties != null && linkProperties.getMtu() > 0) {
+                    mtu = linkProperties.getMtu();
+                }
+            } catch (Exception e) {
+                Log.w("Utilities", "can`t read the link mtu => " + e);
+            }
+        }
+        if (isPacketTransport(config_json)) {
+            mtu -= PACKET_TRANSPORT_OVERHEAD;
+        }
+        return Math.max(MIN_AUTO_MTU, Math.min(MAX_AUTO_MTU, mtu));
+    }
+
+    private static boolean isPacketTransport(final JSONObject config_json) {
+        JSONObject outbound = config_json.optJSONArray("outbounds") != null
+                ? config_json.optJSONArray("outbounds").optJSONObject(0) : null;
+        if (outbound == null) {
+            return false;
+        }
+        String protocol = outbound.optString("protocol");
+        if (protocol.equals("wireguard") || protocol.equals("hysteria") || protocol.equals("hysteria2")) {
+            return true;
+        }
+        JSONObject streamSettings = outbound.optJSONObject("streamSettings");
+        String network = streamSettings != null ? streamSettings.optString("network") : "";
+        return network.equals("kcp") || network.equals("mkcp") || network.equals("quic");
+    }
+
+    /**
+     * Adds the core's own tun inbound, reading packets from the vpn fd exported as {@code xray.tun.fd}.
+     * Sniffing settings of the socks inbound are reused, so routing matches the tun2socks path.
+     */
+    private static void addTunInbound(final JSONObject config_json, final int mtu) throws JSONException {
+        JSONArray inbounds = config_json.getJSONArray("inbounds");
+        JSONObject tunInbound = new JSONObject()
+                .put("tag", "tun-in")
+                .put("protocol", "tun")
+                .put("settings", new JSONObject()
+                        .put("name", "xray0")
+                        .put("MTU", mtu));
+        for (int i = 0; i < inbounds.length(); i++) {
+            JSONObject inbound = inbounds.getJSONObject(i);
+            if ("tun".equals(inbound.optString("protocol"))) {
+                return;
+            }
+            if ("socks".equals(inbound.optString("protocol")) && inbound.has("sniffing")) {
+                tunInbound.put("sniffing", inbound.get("sniffing"));
+            }
+        }
+        inbounds.put(tunInbound);
+    }
+
+    /**
+     * Routes every IPv6 destination to the {@code block} outbound ahead of the config's own rules,
+     * so IPv6 connections captured by the tunnel are refused at once and apps fall back to IPv4
+     * without waiting for a timeout.
+     */
+    private static void addIpv6BlockRule(final JSONObject config_json) throws JSONException {
+        JSONArray outbounds = config_json.getJSONArray("outbounds");
+        boolean hasBlock = false;
+        for (int i = 0; i < outbounds.length(); i++) {
+            hasBlock |= "block".equals(outbounds.getJSONObject(i).optString("tag"));
+        }
+        if (!hasBlock) {
+            outbounds.put(new JSONObject().put("tag", "block").put("protocol", "blackhole"));
+        }
+        JSONObject routing = config_json.optJSONObject("routing");
+        if (routing == null) {
+            routing = new JSONObject();
+            config_json.put("routing", routing);
+        }
+        JSONArray rules = new JSONArray().put(new JSONObject()
+                .put("type", "field")
+                .put("ip", new JSONArray().put("::/0"))
+                .put("outboundTag", "block"));
+        JSONArray existing = routing.optJSONArray("rules");
+        for (int i = 0; existing != null && i < existing.length(); i++) {
+            rules.put(existing.get(i));
+        }
+        routing.put("rules", rules);
+    }
+
+    /**
+     * Whether {@code next} can take over the tun interface, tun2socks and published http proxy of
+     * {@code running} as they are, i.e. every setting they were built from is the same. The remark
+     * only labels the vpn session and is left out.
+     */
+    public static boolean isSameTunnel(final V2rayConfig running, final V2rayConfig next) {
+        return running.CONNECTION_MODE == next.CONNECTION_MODE
+                && running.TUN_ENGINE == next.TUN_ENGINE
+                && running.MTU == next.MTU
+                && running.IPV6_MODE == next.IPV6_MODE
+                && running.ROUTES.equals(next.ROUTES)
+                && Objects.equals(running.ALLOWED_APPS, next.ALLOWED_APPS)
+                && Objects.equals(running.BLOCKED_APPS, next.BLOCKED_APPS)
+                && running.LOCAL_SOCKS5_PORT == next.LOCAL_SOCKS5_PORT
+                && Objects.equals(running.TUN2SOCKS_LOG_LEVEL, next.TUN2SOCKS_LOG_LEVEL)
+                && running.HTTP_PROXY == next.HTTP_PROXY
+                && running.HAS_HTTP_INBOUND == next.HAS_HTTP_INBOUND
+                && running.LOCAL_HTTP_PORT == next.LOCAL_HTTP_PORT
+                && getDnsConfig(running.V2RAY_FULL_JSON_CONFIG).equals(getDnsConfig(next.V2RAY_FULL_JSON_CONFIG));
+    }
+
+    private static String getDnsConfig(final String config) {
+        try {
+            JSONObject dns = new JSONObject(config).optJSONObject("dns");
+            return dns != null ? dns.toString() : "";
+        } catch (Exception e) {
+            return "";
+        }
+    }
+
+    public static V2rayConfig parseV2rayJsonFile(final Context context, final String remark, String config, final ArrayList<String> blockedApplication, final ArrayList<String> bypass_subnets) {
+        final V2rayConfig settings = new V2rayConfig();
+        settings.CONNECTION_MODE = AppConfigs.V2RAY_CONNECTION_MODE;
+        settings.REMARK = remark;
+        settings.BLOCKED_APPS = blockedApplication;
+        settings.ALLOWED_APPS = AppConfigs.ALLOWED_APPS;
+        settings.BYPASS_SUBNETS = bypass_subnets;
+        settings.EXCLUDED_SUBNETS = AppConfigs.EXCLUDED_SUBNETS;
+        settings.BYPASS_LAN = AppConfigs.BYPASS_LAN;
+        settings.HTTP_PROXY = AppConfigs.HTTP_PROXY
+                && AppConfigs.V2RAY_CONNECTION_MODE == AppConfigs.V2RAY_CONNECTION_MODES.VPN_TUN;
+        settings.APPLICATION_ICON = AppConfigs.APPLICATION_ICON;
+        settings.APPLICATION_NAME = AppConfigs.APPLICATION_NAME;
+        settings.NOTIFICATION_DISCONNECT_BUTTON_NAME = AppConfigs.NOTIFICATION_DISCONNECT_BUTTON_NAME;
+        settings.FAILOVER_CONFIGS = AppConfigs.FAILOVER_CONFIGS;
+        settings.FAILOVER_URL = AppConfigs.FAILOVER_URL;
+        settings.FAILOVER_CHECK_INTERVAL = AppConfigs.FAILOVER_CHECK_INTERVAL;
+        settings.FAILOVER_MAX_FAILURES = AppConfigs.FAILOVER_MAX_FAILURES;
+        settings.FAILOVER_LATENCY_THRESHOLD = AppConfigs.FAILOVER_LATENCY_THRESHOLD;
+        settings.TUN_ENGINE = AppConfigs.V2RAY_CONNECTION_MODE == AppConfigs.V2RAY_CONNECTION_MODES.VPN_TUN
+                ? AppConfigs.TUN_ENGINE : AppConfigs.TUN_ENGINES.TUN2SOCKS;
+        settings.TUN2SOCKS_LOG_LEVEL = AppConfigs.TUN2SOCKS_LOG_LEVEL;
+        settings.MTU = AppConfigs.MTU;
+        settings.IPV6_MODE = AppConfigs.V2RAY_CONNECTION_MODE == AppConfigs.V2RAY_CONNECTION_MODES.VPN_TUN
+                ? AppConfigs.IPV6_MODE : AppConfigs.IPV6_MODES.OFF;
+        // the watchdog recovers the tunnel, proxy only sessions have none
+        settings.STALL_WINDOW = AppConfigs.V2RAY_CONNECTION_MODE == AppConfigs.V2RAY_CONNECTION_MODES.VPN_TUN
+                ? AppConfigs.STALL_WINDOW : 0;
+        return parseV2rayJsonFile(context, config, settings);
+    }
+
+    /**
+     * Parses {@code config} with the connection settings of {@code settings} (mode, apps, subnets,
+     * notification, failover and tun options) instead of {@link AppConfigs}, which only holds them in
+     * the plugin process. Passing a running connection keeps its settings and its MTU.
+     */
+    public static V2rayConfig parseV2rayJsonFile(final Context context, String config, final V2rayConfig settings) {
         final V2rayConfig v2rayConfig = new V2rayConfig();
-        v2rayConfig.REMARK = remark;
-        v2rayConfig.BLOCKED_APPS = blockedApplication;
-        v2rayConfig.BYPASS_SUBNETS = bypass_subnets;
-        v2rayConfig.APPLICATION_ICON = AppConfigs.APPLICATION_ICON;
-        v2rayConfig.APPLICATION_NAME = AppConfigs.APPLICATION_NAME;
-        v2rayConfig.NOTIFICATION_DISCONNECT_BUTTON_NAME = AppConfigs.NOTIFICATION_DISCONNECT_BUTTON_NAME;
+        v2rayConfig.CONNECTION_MODE = settings.CONNECTION_MODE;
+        v2rayConfig.REMARK = settings.REMARK;
+        v2rayConfig.BLOCKED_APPS = settings.BLOCKED_APPS;
+        v2rayConfig.BYPASS_SUBNETS = settings.BYPASS_SUBNETS;
+        v2rayConfig.EXCLUDED_SUBNETS = settings.EXCLUDED_SUBNETS;
+        v2rayConfig.BYPASS_LAN = settings.BYPASS_LAN;
+        v2rayConfig.HTTP_PROXY = settings.HTTP_PROXY;
+        v2rayConfig.APPLICATION_ICON = settings.APPLICATION_ICON;
+        v2rayConfig.APPLICATION_NAME = settings.APPLICATION_NAME;
+        v2rayConfig.NOTIFICATION_DISCONNECT_BUTTON_NAME = settings.NOTIFICATION_DISCONNECT_BUTTON_NAME;
+        v2rayConfig.FAILOVER_CONFIGS = settings.FAILOVER_CONFIGS;
+        v2rayConfig.FAILOVER_URL = settings.FAILOVER_URL;
+        v2rayConfig.FAILOVER_CHECK_INTERVAL = settings.FAILOVER_CHECK_INTERVAL;
+        v2rayConfig.FAILOVER_MAX_FAILURES = settings.FAILOVER_MAX_FAILURES;
+        v2rayConfig.FAILOVER_LATENCY_THRESHOLD = settings.FAILOVER_LATENCY_THRESHOLD;
+        v2rayConfig.TUN_ENGINE = settings.TUN_ENGINE;
+        v2rayConfig.TUN2SOCKS_LOG_LEVEL = settings.TUN2SOCKS_LOG_LEVEL;
+        v2rayConfig.IPV6_MODE = settings.IPV6_MODE;
+        v2rayConfig.STALL_WINDOW = settings.STALL_WINDOW;
         try {
             JSONObject config_json = new JSONObject(config);
             try {
@@ -83,6 +400,7 @@ public class Utilities {
                     try {
                         if (inbounds.getJSONObject(i).getString("protocol").equals("http")) {
                             v2rayConfig.LOCAL_HTTP_PORT = inbounds.getJSONObject(i).getInt("port");
+                            v2rayConfig.HAS_HTTP_INBOUND = true;
                         }
                     } catch (Exception e) {
                         //ignore
@@ -92,25 +410,47 @@ public class Utilities {
                 Log.w(V2rayCoreManager.class.getSimpleName(), "startCore warn => can`t find inbound port of socks5 or http.");
                 return null;
             }
-            try {
-                v2rayConfig.CONNECTED_V2RAY_SERVER_ADDRESS = config_json.getJSONArray("outbounds")
-                        .getJSONObject(0).getJSONObject("settings")
-                        .getJSONArray("vnext").getJSONObject(0)
-                        .getString("address");
-                v2rayConfig.CONNECTED_V2RAY_SERVER_PORT = config_json.getJSONArray("outbounds")
-                        .getJSONObject(0).getJSONObject("settings")
-                        .getJSONArray("vnext").getJSONObject(0)
-                        .getString("port");
-            } catch (Exception e) {
-                v2rayConfig.CONNECTED_V2RAY_SERVER_ADDRESS = config_json.getJSONArray("outbounds")
-                        .getJSONObject(0).getJSONObject("settings")
-                        .getJSONArray("servers").getJSONObject(0)
-                        .getString("address");
-                v2rayConfig.CONNECTED_V2RAY_SERVER_PORT = config_json.getJSONArray("outbounds")
-                        .getJSONObject(0).getJSONObject("settings")
-                        .getJSONArray("servers").getJSONObject(0)
-                        .getString("port");
+            if (v2rayConfig.CONNECTION_MODE == AppConfigs.V2RAY_CONNECTION_MODES.VPN_TUN) {
+                v2rayConfig.MTU = selectMtu(context, settings.MTU, config_json);
+                // unknown packages are dropped here, so the vpn builder doesn't look them up and fail
+                if (settings.ALLOWED_APPS != null && !settings.ALLOWED_APPS.isEmpty()) {
+                    v2rayConfig.ALLOWED_APPS = new ArrayList<>(
+                            V2rayInstalledApps.getInstance().filter(context, settings.ALLOWED_APPS));
+                    if (v2rayConfig.ALLOWED_APPS.isEmpty()) {
+                        // an empty allowed list would put every app in the vpn
+                        v2rayConfig.ALLOWED_APPS.add(context.getPackageName());
+                    }
+                    v2rayConfig.BLOCKED_APPS = null;
+                } else if (settings.BLOCKED_APPS != null && !settings.BLOCKED_APPS.isEmpty()) {
+                    v2rayConfig.BLOCKED_APPS = new ArrayList<>(
+                            V2rayInstalledApps.getInstance().filter(context, settings.BLOCKED_APPS));
+                }
+                ArrayList<String> excludes = new ArrayList<>();
+                if (v2rayConfig.EXCLUDED_SUBNETS != null) {
+                    excludes.addAll(v2rayConfig.EXCLUDED_SUBNETS);
+                }
+                if (v2rayConfig.BYPASS_LAN) {
+                    excludes.addAll(V2rayRouteCompiler.LAN_SUBNETS);
+                }
+                v2rayConfig.ROUTES.addAll(V2rayRouteCompiler.compile(v2rayConfig.BYPASS_SUBNETS, excludes,
+                        v2rayConfig.IPV6_MODE != AppConfigs.IPV6_MODES.OFF));
             }
+            if (v2rayConfig.TUN_ENGINE == AppConfigs.TUN_ENGINES.XRAY) {
+                addTunInbound(config_json, v2rayConfig.MTU);
+            }
+            if (v2rayConfig.IPV6_MODE == AppConfigs.IPV6_MODES.BLOCK) {
+                addIpv6BlockRule(config_json);
+            }
+            JSONArray outbounds = config_json.getJSONArray("outbounds");
+            for (int i = 0; i < outbounds.length(); i++) {
+                String tag = outbounds.getJSONObject(i).optString("tag");
+                if (tag.equals("proxy") || tag.equals("block") || tag.startsWith(V2rayBalancerConfig.PROXY_TAG_PREFIX)) {
+                    v2rayConfig.TRAFFIC_STATICS_TAGS.add(tag);
+                }
+            }
+            JSONObject server = getOutboundServer(config_json);
+            v2rayConfig.CONNECTED_V2RAY_SERVER_ADDRESS = server.getString("address");
+            v2rayConfig.CONNECTED_V2RAY_SERVER_PORT = server.getString("port");
             try {
                 if (config_json.has("policy")) {
                     config_json.remove("policy");
@@ -143,6 +483,10 @@ public class Utilities {
                     //ignore
                 }
             }
+            if (v2rayConfig.TUN_ENGINE == AppConfigs.TUN_ENGINES.XRAY
+                    || v2rayConfig.IPV6_MODE == AppConfigs.IPV6_MODES.BLOCK) {
+                config = config_json.toString();
+            }
         } catch (Exception e) {
             Log.e(Utilities.class.getName(), "parseV2rayJsonFile failed => ", e);
             //ignore
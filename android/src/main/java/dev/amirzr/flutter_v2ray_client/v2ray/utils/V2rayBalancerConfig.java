@@ -0,0 +1,150 @@
+package dev.amirzr.flutter_v2ray_client.v2ray.utils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges several single-server configs into one config that balances traffic between them.
+ * The inbounds, dns, routing rules and non-proxy outbounds of the first config are kept; the
+ * default outbound of every config (with the outbounds it chains through) is added under a unique
+ * tag and all traffic routed to {@code proxy} is sent to a balancer over those tags instead.
+ */
+public final class V2rayBalancerConfig {
+    public static final String BALANCER_TAG = "balancer";
+    /**
+     * Prefix of the balanced outbound tags, {@code proxy-0} is the default outbound of the first config.
+     */
+    public static final String PROXY_TAG_PREFIX = "proxy-";
+    private static final String CHAIN_TAG_PREFIX = "chain-";
+    private static final String PROBE_INTERVAL = "30s";
+
+    private V2rayBalancerConfig() {
+    }
+
+    /**
+     * @param configs  full v2ray json configs, each with its server as the first outbound
+     * @param strategy balancer strategy; leastPing adds an {@code observatory}, leastLoad a {@code burstObservatory}
+     * @param probeUrl url the observatory probes the servers with
+     * @return the merged config, its first outbound is the server of {@code configs[0]}
+     */
+    public static String build(final List<String> configs, final AppConfigs.BALANCER_STRATEGIES strategy,
+            final String probeUrl) throws JSONException {
+        if (configs == null || configs.isEmpty()) {
+            throw new JSONException("no configs to balance");
+        }
+        JSONObject base = new JSONObject(configs.get(0));
+        JSONArray baseOutbounds = base.getJSONArray("outbounds");
+        List<JSONObject> baseChain = Utilities.getOutboundChain(baseOutbounds, 0);
+
+        JSONArray outbounds = new JSONArray();
+        for (int i = 0; i < configs.size(); i++) {
+            JSONArray source = i == 0 ? baseOutbounds : new JSONObject(configs.get(i)).getJSONArray("outbounds");
+            for (JSONObject outbound : retag(Utilities.getOutboundChain(source, 0), i)) {
+                outbounds.put(outbound);
+            }
+        }
+        boolean hasDirect = false;
+        boolean hasBlock = false;
+        for (int i = 0; i < baseOutbounds.length(); i++) {
+            JSONObject outbound = baseOutbounds.getJSONObject(i);
+            if (baseChain.contains(outbound)) {
+                continue;
+            }
+            hasDirect |= "direct".equals(outbound.optString("tag"));
+            hasBlock |= "block".equals(outbound.optString("tag"));
+            outbounds.put(outbound);
+        }
+        if (!hasDirect) {
+            outbounds.put(new JSONObject().put("tag", "direct").put("protocol", "freedom"));
+        }
+        if (!hasBlock) {
+            outbounds.put(new JSONObject().put("tag", "block").put("protocol", "blackhole"));
+        }
+        base.put("outbounds", outbounds);
+
+        JSONObject routing = base.optJSONObject("routing");
+        if (routing == null) {
+            routing = new JSONObject();
+            base.put("routing", routing);
+        }
+        String baseTag = baseOutbounds.getJSONObject(0).optString("tag", "proxy");
+        JSONArray rules = routing.optJSONArray("rules");
+        JSONArray balancedRules = new JSONArray();
+        for (int i = 0; rules != null && i < rules.length(); i++) {
+            JSONObject rule = rules.getJSONObject(i);
+            if (baseTag.equals(rule.optString("outboundTag"))) {
+                rule.remove("outboundTag");
+                rule.put("balancerTag", BALANCER_TAG);
+            }
+            balancedRules.put(rule);
+        }
+        // unmatched traffic would go to the first outbound only
+        balancedRules.put(new JSONObject()
+                .put("type", "field")
+                .put("network", "tcp,udp")
+                .put("balancerTag", BALANCER_TAG));
+        routing.put("rules", balancedRules);
+
+        JSONObject balancer = new JSONObject()
+                .put("tag", BALANCER_TAG)
+                .put("selector", new JSONArray().put(PROXY_TAG_PREFIX))
+                .put("strategy", new JSONObject().put("type", strategy.type));
+        if (strategy != AppConfigs.BALANCER_STRATEGIES.RANDOM) {
+            balancer.put("fallbackTag", PROXY_TAG_PREFIX + 0);
+        }
+        routing.put("balancers", new JSONArray().put(balancer));
+
+        base.remove("observatory");
+        base.remove("burstObservatory");
+        if (strategy == AppConfigs.BALANCER_STRATEGIES.LEAST_PING) {
+            base.put("observatory", new JSONObject()
+                    .put("subjectSelector", new JSONArray().put(PROXY_TAG_PREFIX))
+                    .put("probeURL", probeUrl)
+                    .put("probeInterval", PROBE_INTERVAL)
+                    .put("enableConcurrency", true));
+        } else if (strategy == AppConfigs.BALANCER_STRATEGIES.LEAST_LOAD) {
+            base.put("burstObservatory", new JSONObject()
+                    .put("subjectSelector", new JSONArray().put(PROXY_TAG_PREFIX))
+                    .put("pingConfig", new JSONObject()
+                            .put("destination", probeUrl)
+                            .put("interval", PROBE_INTERVAL)
+                            .put("timeout", "5s")
+                            .put("sampling", 2)));
+        }
+        return base.toString();
+    }
+
+    /**
+     * Copies an outbound chain of config {@code index}: the head is tagged {@code proxy-<index>}, the
+     * outbounds it dials through {@code chain-<index>-<tag>} so they don't match the balancer selector.
+     */
+    private static List<JSONObject> retag(final List<JSONObject> chain, final int index) throws JSONException {
+        Map<String, String> tags = new HashMap<>();
+        for (int i = 0; i < chain.size(); i++) {
+            String tag = chain.get(i).optString("tag", "");
+            tags.put(tag, i == 0 ? PROXY_TAG_PREFIX + index : CHAIN_TAG_PREFIX + index + "-" + tag);
+        }
+        List<JSONObject> retagged = new ArrayList<>();
+        for (JSONObject source : chain) {
+            JSONObject outbound = new JSONObject(source.toString());
+            outbound.put("tag", tags.get(source.optString("tag", "")));
+            JSONObject proxySettings = outbound.optJSONObject("proxySettings");
+            if (proxySettings != null && tags.containsKey(proxySettings.optString("tag"))) {
+                proxySettings.put("tag", tags.get(proxySettings.optString("tag")));
+            }
+            JSONObject streamSettings = outbound.optJSONObject("streamSettings");
+            JSONObject sockopt = streamSettings != null ? streamSettings.optJSONObject("sockopt") : null;
+            if (sockopt != null && tags.containsKey(sockopt.optString("dialerProxy"))) {
+                sockopt.put("dialerProxy", tags.get(sockopt.optString("dialerProxy")));
+            }
+            retagged.add(outbound);
+        }
+        return retagged;
+    }
+}
@@ -5,16 +5,43 @@ import java.util.ArrayList;
 
 public class V2rayConfig implements Serializable {
 
+    public AppConfigs.V2RAY_CONNECTION_MODES CONNECTION_MODE = AppConfigs.V2RAY_CONNECTION_MODES.VPN_TUN;
     public String CONNECTED_V2RAY_SERVER_ADDRESS = "";
     public String CONNECTED_V2RAY_SERVER_PORT = "";
     public int LOCAL_SOCKS5_PORT = 10808;
     public int LOCAL_HTTP_PORT = 10809;
+    public boolean HAS_HTTP_INBOUND = false;
+    /**
+     * Publish the http inbound as the http proxy of the vpn network.
+     */
+    public boolean HTTP_PROXY = false;
     public ArrayList<String> BLOCKED_APPS = null;
+    /**
+     * When set only these apps use the vpn, {@link #BLOCKED_APPS} is ignored.
+     */
+    public ArrayList<String> ALLOWED_APPS = null;
     public ArrayList<String> BYPASS_SUBNETS = null;
+    public ArrayList<String> EXCLUDED_SUBNETS = null;
+    public boolean BYPASS_LAN = false;
+    /**
+     * Compiled routes of the tun interface as {@code address/prefix}.
+     */
+    public ArrayList<String> ROUTES = new ArrayList<>();
     public String V2RAY_FULL_JSON_CONFIG = null;
     public boolean ENABLE_TRAFFIC_STATICS = false;
+    public ArrayList<String> TRAFFIC_STATICS_TAGS = new ArrayList<>();
     public String REMARK = "";
     public String APPLICATION_NAME;
     public String NOTIFICATION_DISCONNECT_BUTTON_NAME;
     public int APPLICATION_ICON;
+    public ArrayList<String> FAILOVER_CONFIGS = null;
+    public String FAILOVER_URL;
+    public long FAILOVER_CHECK_INTERVAL;
+    public int FAILOVER_MAX_FAILURES;
+    public long FAILOVER_LATENCY_THRESHOLD;
+    public AppConfigs.TUN_ENGINES TUN_ENGINE = AppConfigs.TUN_ENGINES.TUN2SOCKS;
+    public String TUN2SOCKS_LOG_LEVEL = "error";
+    public int MTU = 1500;
+    public AppConfigs.IPV6_MODES IPV6_MODE = AppConfigs.IPV6_MODES.OFF;
+    public long STALL_WINDOW = 0;
 }
@@ -0,0 +1,256 @@
+package dev.amirzr.flutter_v2ray_client.v2ray.utils;
+
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Compiles the routes of the tun interface: the union of the included subnets minus the union of
+ * the excluded ones, as the minimal list of CIDR blocks. Works on address intervals, so overlapping,
+ * duplicate and adjacent entries of large lists (e.g. country ranges) collapse before they reach
+ * {@code VpnService.Builder.addRoute}.
+ */
+public final class V2rayRouteCompiler {
+    /**
+     * Private, link-local and multicast ranges excluded by the bypass-LAN option.
+     */
+    public static final List<String> LAN_SUBNETS = Collections.unmodifiableList(Arrays.asList(
+            "10.0.0.0/8",
+            "100.64.0.0/10",
+            "169.254.0.0/16",
+            "172.16.0.0/12",
+            "192.168.0.0/16",
+            "224.0.0.0/4",
+            "255.255.255.255/32",
+            "fc00::/7",
+            "fe80::/10",
+            "ff00::/8"));
+    private static final Comparator<Range> BY_START = new Comparator<Range>() {
+        @Override
+        public int compare(Range a, Range b) {
+            return a.start.compareTo(b.start);
+        }
+    };
+
+    private V2rayRouteCompiler() {
+    }
+
+    /**
+     * @param includes subnets to route through the tunnel, null or empty routes everything
+     * @param excludes subnets to keep out of the tunnel
+     * @param ipv6     whether IPv6 is routed: the default route includes {@code ::/0}, otherwise IPv6
+     *                 includes are dropped, since the interface has no IPv6 address to carry them
+     * @return IPv4 routes followed by IPv6 routes as {@code address/prefix}, malformed entries are skipped
+     */
+    public static List<String> compile(final Collection<String> includes, final Collection<String> excludes,
+            final boolean ipv6) {
+        List<Range> includes4 = new ArrayList<>();
+        List<Range> includes6 = new ArrayList<>();
+        List<Range> excludes4 = new ArrayList<>();
+        List<Range> excludes6 = new ArrayList<>();
+        if (includes == null || includes.isEmpty()) {
+            includes4.add(parse("0.0.0.0/0"));
+            if (ipv6) {
+                includes6.add(parse("::/0"));
+            }
+        } else {
+            split(includes, includes4, includes6);
+            if (!ipv6) {
+                includes6.clear();
+            }
+        }
+        if (excludes != null) {
+            split(excludes, excludes4, excludes6);
+        }
+        List<String> routes = new ArrayList<>();
+        toCidrs(subtract(merge(includes4), merge(excludes4)), 32, routes);
+        toCidrs(subtract(merge(includes6), merge(excludes6)), 128, routes);
+        return routes;
+    }
+
+    private static void split(final Collection<String> subnets, final List<Range> v4, final List<Range> v6) {
+        for (String subnet : subnets) {
+            Range range = parse(subnet);
+            if (range == null) {
+                continue;
+            }
+            (range.bits == 32 ? v4 : v6).add(range);
+        }
+    }
+
+    /**
+     * Parses {@code address/prefix}, or a single address, into the interval it covers.
+     *
+     * @return null if {@code subnet} is not an IP literal with a valid prefix
+     */
+    static Range parse(final String subnet) {
+        if (subnet == null) {
+            return null;
+        }
+        String[] parts = subnet.trim().split("/");
+        if (parts.length > 2) {
+            return null;
+        }
+        byte[] address = parseAddress(parts[0]);
+        if (address == null) {
+            return null;
+        }
+        int bits = address.length * 8;
+        int prefix;
+        try {
+            prefix = parts.length == 2 ? Integer.parseInt(parts[1].trim()) : bits;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (prefix < 0 || prefix > bits) {
+            return null;
+        }
+        BigInteger hostMask = BigInteger.ONE.shiftLeft(bits - prefix).subtract(BigInteger.ONE);
+        BigInteger start = new BigInteger(1, address).andNot(hostMask);
+        return new Range(start, start.or(hostMask), bits);
+    }
+
+    private static byte[] parseAddress(final String address) {
+        if (address.indexOf(':') >= 0) {
+            // a colon can't occur in a host name, so this never does a dns lookup
+            try {
+                byte[] bytes = InetAddress.getByName(address).getAddress();
+                if (bytes.length == 4) {
+                    // ::ffff:a.b.c.d comes back as IPv4
+                    byte[] mapped = new byte[16];
+                    mapped[10] = (byte) 0xff;
+                    mapped[11] = (byte) 0xff;
+                    System.arraycopy(bytes, 0, mapped, 12, 4);
+                    return mapped;
+                }
+                return bytes;
+            } catch (Exception e) {
+                return null;
+            }
+        }
+        String[] octets = address.split("\\.", -1);
+        if (octets.length != 4) {
+            return null;
+        }
+        byte[] bytes = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            try {
+                int octet = Integer.parseInt(octets[i]);
+                if (octet < 0 || octet > 255) {
+                    return null;
+                }
+                bytes[i] = (byte) octet;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return sorted, disjoint and non-adjacent intervals covering {@code ranges}
+     */
+    private static List<Range> merge(final List<Range> ranges) {
+        List<Range> sorted = new ArrayList<>(ranges);
+        Collections.sort(sorted, BY_START);
+        List<Range> merged = new ArrayList<>();
+        Range current = null;
+        for (Range range : sorted) {
+            if (current != null && range.start.compareTo(current.end.add(BigInteger.ONE)) <= 0) {
+                if (range.end.compareTo(current.end) > 0) {
+                    current = new Range(current.start, range.end, current.bits);
+                }
+            } else {
+                if (current != null) {
+                    merged.add(current);
+                }
+                current = range;
+            }
+        }
+        if (current != null) {
+            merged.add(current);
+        }
+        return merged;
+    }
+
+    /**
+     * @param includes merged intervals
+     * @param excludes merged intervals
+     */
+    private static List<Range> subtract(final List<Range> includes, final List<Range> excludes) {
+        List<Range> result = new ArrayList<>();
+        int first = 0;
+        for (Range include : includes) {
+            BigInteger start = include.start;
+            while (first < excludes.size() && excludes.get(first).end.compareTo(start) < 0) {
+                first++;
+            }
+            for (int i = first; i < excludes.size() && start.compareTo(include.end) <= 0; i++) {
+                Range exclude = excludes.get(i);
+                if (exclude.start.compareTo(include.end) > 0) {
+                    break;
+                }
+                if (exclude.start.compareTo(start) > 0) {
+                    result.add(new Range(start, exclude.start.subtract(BigInteger.ONE), include.bits));
+                }
+                if (exclude.end.compareTo(start) >= 0) {
+                    start = exclude.end.add(BigInteger.ONE);
+                }
+            }
+            if (start.compareTo(include.end) <= 0) {
+                result.add(new Range(start, include.end, include.bits));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Splits every interval into the fewest aligned blocks, taking the largest block that both starts
+     * aligned at the current address and fits in the rest of the interval.
+     */
+    private static void toCidrs(final List<Range> ranges, final int bits, final List<String> routes) {
+        for (Range range : ranges) {
+            BigInteger start = range.start;
+            while (start.compareTo(range.end) <= 0) {
+                int alignment = start.signum() == 0 ? bits : start.getLowestSetBit();
+                int fit = range.end.subtract(start).add(BigInteger.ONE).bitLength() - 1;
+                int hostBits = Math.min(alignment, fit);
+                routes.add(format(start, bits) + "/" + (bits - hostBits));
+                start = start.add(BigInteger.ONE.shiftLeft(hostBits));
+            }
+        }
+    }
+
+    private static String format(final BigInteger address, final int bits) {
+        StringBuilder builder = new StringBuilder();
+        if (bits == 32) {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                if (builder.length() > 0) builder.append('.');
+                builder.append(address.shiftRight(shift).intValue() & 0xFF);
+            }
+        } else {
+            for (int shift = 112; shift >= 0; shift -= 16) {
+                if (builder.length() > 0) builder.append(':');
+                builder.append(Integer.toHexString(address.shiftRight(shift).intValue() & 0xFFFF));
+            }
+        }
+        return builder.toString();
+    }
+
+    static final class Range {
+        final BigInteger start;
+        final BigInteger end;
+        final int bits;
+
+        Range(BigInteger start, BigInteger end, int bits) {
+            this.start = start;
+            this.end = end;
+            this.bits = bits;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package dev.amirzr.flutter_v2ray_client.v2ray.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+
+public class V2rayDnsProberTest {
+    private static final String ALIVE = "10.0.0.1";
+    private static final String SLOW = "10.0.0.2";
+    private static final String DEAD = "10.0.0.3";
+
+    private ServerSocket stub;
+    private V2rayDnsProber prober;
+
+    /**
+     * Local stand-in for a resolver behind the tunnel: answers every DNS-over-TCP query with an
+     * empty NOERROR response.
+     */
+    @Before
+    public void startStub() throws IOException {
+        stub = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(() -> {
+            while (!stub.isClosed()) {
+                try (Socket socket = stub.accept()) {
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    byte[] query = new byte[in.readUnsignedShort()];
+                    in.readFully(query);
+                    query[2] |= (byte) 0x80;
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    out.writeShort(query.length);
+                    out.write(query);
+                    out.flush();
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        prober = new V2rayDnsProber((server, timeoutMillis) -> {
+            if (DEAD.equals(server)) {
+                throw new IOException("connection refused");
+            }
+            if (SLOW.equals(server)) {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            return new Socket(InetAddress.getLoopbackAddress(), stub.getLocalPort());
+        });
+    }
+
+    @After
+    public void stopStub() throws IOException {
+        stub.close();
+    }
+
+    @Test
+    public void keepsConfigOrderBeforeProbing() {
+        assertEquals(Arrays.asList(DEAD, SLOW, ALIVE), prober.rank(Arrays.asList(DEAD, SLOW, ALIVE)));
+    }
+
+    @Test
+    public void ranksByLatencyAndDropsFailingServers() {
+        for (int i = 0; i < 3; i++) {
+            prober.probeOnce(Arrays.asList(DEAD, SLOW, ALIVE));
+        }
+        assertEquals(Arrays.asList(ALIVE, SLOW), prober.rank(Arrays.asList(DEAD, SLOW, ALIVE)));
+    }
+
+    @Test
+    public void keepsAllServersWhenEveryOneFails() {
+        for (int i = 0; i < 3; i++) {
+            prober.probeOnce(Arrays.asList(DEAD));
+        }
+        assertEquals(Arrays.asList(DEAD), prober.rank(Arrays.asList(DEAD)));
+    }
+
+    @Test
+    public void checksResponseIdAndCode() {
+        byte[] response = V2rayDnsProber.buildQuery(42, V2rayDnsProber.PROBE_DOMAIN);
+        assertFalse(V2rayDnsProber.isAnswer(response, 42));
+        response[2] |= (byte) 0x80;
+        assertTrue(V2rayDnsProber.isAnswer(response, 42));
+        assertFalse(V2rayDnsProber.isAnswer(response, 43));
+        response[3] = 0x02; // SERVFAIL
+        assertFalse(V2rayDnsProber.isAnswer(response, 42));
+    }
+}
@@ -0,0 +1,132 @@
+package dev.amirzr.flutter_v2ray_client.v2ray.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class V2rayHealthWatchdogTest {
+    private static final long WINDOW = 30000L;
+    private static final long INTERVAL = 10000L;
+
+    private long uplink;
+    private long downlink;
+    private boolean statics;
+    private long delay;
+    private boolean tun2socksAlive;
+    private V2rayHealthWatchdog watchdog;
+
+    @Before
+    public void setUp() {
+        uplink = 0;
+        downlink = 0;
+        statics = true;
+        delay = 100;
+        tun2socksAlive = true;
+        watchdog = newWatchdog(true);
+        watchdog.reset(0);
+    }
+
+    @Test
+    public void staysQuietWhileDataFlows() {
+        for (long now = INTERVAL; now <= 10 * WINDOW; now += INTERVAL) {
+            uplink += 1000;
+            downlink += 5000;
+            assertNull(watchdog.check(now));
+        }
+    }
+
+    @Test
+    public void declaresStallOnUplinkWithoutDownlink() {
+        delay = 100; // the core still reaches the server, e.g. tun2socks wedged
+        assertNull(check(INTERVAL, 1000, 0));
+        assertNull(check(2 * INTERVAL, 2000, 0));
+        // counted from the last check that saw no silent uplink
+        String reason = check(3 * INTERVAL, 3000, 0);
+        assertNotNull(reason);
+        assertTrue(reason, reason.startsWith("uplink without downlink"));
+    }
+
+    @Test
+    public void declaresStallOnFailingProbesWithoutDownlink() {
+        delay = -1;
+        assertNull(watchdog.check(INTERVAL));
+        assertNull(watchdog.check(2 * INTERVAL));
+        String reason = watchdog.check(3 * INTERVAL);
+        assertNotNull(reason);
+        assertTrue(reason, reason.startsWith("delay probes failing"));
+    }
+
+    @Test
+    public void downlinkOutweighsFailingProbes() {
+        delay = -1; // e.g. the probe url is blocked by the server
+        for (long now = INTERVAL; now <= 10 * WINDOW; now += INTERVAL) {
+            downlink += 5000;
+            assertNull(watchdog.check(now));
+        }
+    }
+
+    @Test
+    public void declaresStallWhenTun2socksStaysDown() {
+        tun2socksAlive = false;
+        assertNull(watchdog.check(INTERVAL));
+        assertNull(watchdog.check(2 * INTERVAL));
+        String reason = watchdog.check(3 * INTERVAL);
+        assertNotNull(reason);
+        assertTrue(reason, reason.startsWith("tun2socks down"));
+    }
+
+    @Test
+    public void climbsTheLadderUntilDataFlowsAgain() {
+        assertEquals(V2rayHealthWatchdog.Actions.RESET_CONNECTIONS, watchdog.nextAction());
+        assertEquals(V2rayHealthWatchdog.Actions.RESTART_CORE, watchdog.nextAction());
+        assertEquals(V2rayHealthWatchdog.Actions.RECONNECT, watchdog.nextAction());
+        assertEquals(V2rayHealthWatchdog.Actions.RECONNECT, watchdog.nextAction());
+        check(INTERVAL, 0, 5000);
+        assertEquals(V2rayHealthWatchdog.Actions.RESET_CONNECTIONS, watchdog.nextAction());
+    }
+
+    @Test
+    public void skipsConnectionResetWithoutTun2socks() {
+        watchdog = newWatchdog(false);
+        assertEquals(V2rayHealthWatchdog.Actions.RESTART_CORE, watchdog.nextAction());
+    }
+
+    @Test
+    public void resetsTheLadderOnProbeSuccessWithoutStatics() {
+        statics = false;
+        watchdog.reset(0);
+        watchdog.nextAction();
+        watchdog.nextAction();
+        assertNull(watchdog.check(INTERVAL));
+        assertEquals(V2rayHealthWatchdog.Actions.RESET_CONNECTIONS, watchdog.nextAction());
+    }
+
+    private String check(final long now, final long uplink, final long downlink) {
+        this.uplink = uplink;
+        this.downlink = downlink;
+        return watchdog.check(now);
+    }
+
+    private V2rayHealthWatchdog newWatchdog(final boolean hasTun2socks) {
+        return new V2rayHealthWatchdog(WINDOW, hasTun2socks, new V2rayHealthWatchdog.Signals() {
+            @Override
+            public long[] getTraffic() {
+                return statics ? new long[] { uplink, downlink } : null;
+            }
+
+            @Override
+            public long measureDelay() {
+                return delay;
+            }
+
+            @Override
+            public boolean isTun2socksAlive() {
+                return tun2socksAlive;
+            }
+        }, action -> 0);
+    }
+}
@@ -0,0 +1,67 @@
+package dev.amirzr.flutter_v2ray_client.v2ray.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Timings of V2rayRouteCompiler on large subnet lists. They are only printed, never asserted,
+ * so a slow test machine can not fail the build.
+ */
+public class V2rayRouteCompilerBenchmarkTest {
+
+    private static final int WARM_UP_RUNS = 3;
+    private static final int MEASURED_RUNS = 5;
+
+    @Test
+    public void includes10k() {
+        report("10k includes", randomSubnets(10000, 1, false), null, false);
+    }
+
+    @Test
+    public void includesAndExcludes10k() {
+        report("10k includes + 10k excludes", randomSubnets(10000, 2, false), randomSubnets(10000, 3, false), false);
+    }
+
+    @Test
+    public void mixedFamilies30k() {
+        List<String> includes = randomSubnets(15000, 4, false);
+        includes.addAll(randomSubnets(15000, 5, true));
+        report("30k includes (v4 + v6) + 10k excludes", includes, randomSubnets(10000, 6, false), true);
+    }
+
+    private static void report(final String name, final List<String> includes, final List<String> excludes,
+            final boolean ipv6) {
+        int routes = 0;
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            routes = V2rayRouteCompiler.compile(includes, excludes, ipv6).size();
+        }
+        List<Long> timings = new ArrayList<>();
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            long start = System.nanoTime();
+            V2rayRouteCompiler.compile(includes, excludes, ipv6);
+            timings.add((System.nanoTime() - start) / 1000000);
+        }
+        Collections.sort(timings);
+        System.out.println("V2rayRouteCompiler " + name + ": " + routes + " routes, median "
+                + timings.get(MEASURED_RUNS / 2) + "ms, max " + timings.get(MEASURED_RUNS - 1) + "ms");
+    }
+
+    private static List<String> randomSubnets(final int count, final long seed, final boolean ipv6) {
+        Random random = new Random(seed);
+        List<String> subnets = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (ipv6) {
+                subnets.add("2001:db8:" + Integer.toHexString(random.nextInt(0x10000)) + ":"
+                        + Integer.toHexString(random.nextInt(0x10000)) + "::/" + (40 + random.nextInt(25)));
+            } else {
+                subnets.add((1 + random.nextInt(223)) + "." + random.nextInt(256) + "." + random.nextInt(256)
+                        + ".0/" + (16 + random.nextInt(9)));
+            }
+        }
+        return subnets;
+    }
+}
@@ -0,0 +1,114 @@
+package dev.amirzr.flutter_v2ray_client.v2ray.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class V2rayRouteCompilerTest {
+
+    @Test
+    public void routesEverythingWithoutIncludes() {
+        assertEquals(Collections.singletonList("0.0.0.0/0"),
+                V2rayRouteCompiler.compile(null, null, false));
+        assertEquals(Arrays.asList("0.0.0.0/0", "0:0:0:0:0:0:0:0/0"),
+                V2rayRouteCompiler.compile(Collections.<String>emptyList(), null, true));
+    }
+
+    @Test
+    public void mergesOverlappingAndAdjacentIncludes() {
+        List<String> routes = V2rayRouteCompiler.compile(
+                Arrays.asList("10.0.1.0/24", "10.0.0.0/24", "10.0.0.128/25", "10.0.1.5", "10.0.2.0/23"),
+                null, false);
+        assertEquals(Arrays.asList("10.0.0.0/22"), routes);
+    }
+
+    @Test
+    public void subtractsExcludesFromTheDefaultRoute() {
+        List<String> routes = V2rayRouteCompiler.compile(null, Collections.singletonList("128.0.0.0/1"), false);
+        assertEquals(Collections.singletonList("0.0.0.0/1"), routes);
+
+        routes = V2rayRouteCompiler.compile(null, Collections.singletonList("192.168.0.0/16"), false);
+        assertEquals(16, routes.size());
+        assertEquals("0.0.0.0/1", routes.get(0));
+        assertEquals("192.169.0.0/16", routes.get(5));
+        assertEquals(BigInteger.ONE.shiftLeft(32).subtract(BigInteger.ONE.shiftLeft(16)), size(routes, 32));
+    }
+
+    @Test
+    public void bypassesLanRangesOfBothFamilies() {
+        List<String> routes = V2rayRouteCompiler.compile(null, V2rayRouteCompiler.LAN_SUBNETS, true);
+        for (String route : routes) {
+            assertTrue(route, !route.startsWith("10.") && !route.startsWith("192.168.") && !route.startsWith("fe80:"));
+        }
+        assertTrue(routes.contains("8.0.0.0/7"));
+        assertTrue(routes.contains("0:0:0:0:0:0:0:0/1"));
+        assertTrue(routes.contains("fec0:0:0:0:0:0:0:0/10"));
+    }
+
+    @Test
+    public void skipsMalformedEntries() {
+        List<String> routes = V2rayRouteCompiler.compile(
+                Arrays.asList("1.2.3.0/24", "1.2.3.4/33", "300.1.1.1/8", "example.com/24", "1.2.3/24", ""),
+                Collections.singletonList("::zz/64"), false);
+        assertEquals(Collections.singletonList("1.2.3.0/24"), routes);
+    }
+
+    @Test
+    public void dropsIpv6IncludesWhenIpv6IsOff() {
+        List<String> includes = Arrays.asList("1.2.3.0/24", "2001:db8::/32");
+        assertEquals(Collections.singletonList("1.2.3.0/24"), V2rayRouteCompiler.compile(includes, null, false));
+        assertEquals(Arrays.asList("1.2.3.0/24", "2001:db8:0:0:0:0:0:0/32"),
+                V2rayRouteCompiler.compile(includes, null, true));
+    }
+
+    @Test
+    public void collapsesLargeListsIntoFewBlocks() {
+        List<String> includes = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            includes.add("10." + (i / 256) + "." + (i % 256) + ".0/24");
+            // duplicates collapse as well
+            includes.add("10." + (i / 256) + "." + (i % 256) + ".128/25");
+        }
+        assertEquals(Arrays.asList("10.0.0.0/15", "10.2.0.0/16", "10.3.0.0/17", "10.3.128.0/18",
+                "10.3.192.0/19", "10.3.224.0/21"), V2rayRouteCompiler.compile(includes, null, false));
+        assertEquals(Arrays.asList("10.0.0.0/22", "10.0.4.0/24", "10.0.6.0/23", "10.0.8.0/21", "10.0.16.0/20",
+                "10.0.32.0/19", "10.0.64.0/18", "10.0.128.0/17", "10.1.0.0/16", "10.2.0.0/16", "10.3.0.0/17",
+                "10.3.128.0/18", "10.3.192.0/19", "10.3.224.0/21"),
+                V2rayRouteCompiler.compile(includes, Collections.singletonList("10.0.5.0/24"), false));
+    }
+
+    @Test
+    public void compilesTenThousandEntryListsExactly() {
+        List<String> includes = new ArrayList<>();
+        List<String> excludes = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            String prefix = "10." + (i / 256) + "." + (i % 256) + ".";
+            includes.add(prefix + "0/24");
+            // the first quarter of every included block is kept out
+            excludes.add(prefix + "0/26");
+            expected.add(prefix + "64/26");
+            expected.add(prefix + "128/25");
+        }
+        Collections.shuffle(includes, new Random(1));
+        List<String> routes = V2rayRouteCompiler.compile(includes, excludes, false);
+        assertEquals(expected, routes);
+        assertEquals(BigInteger.valueOf(10000L * 192), size(routes, 32));
+    }
+
+    private static BigInteger size(final List<String> routes, final int bits) {
+        BigInteger total = BigInteger.ZERO;
+        for (String route : routes) {
+            total = total.add(BigInteger.ONE.shiftLeft(bits - Integer.parseInt(route.split("/")[1])));
+        }
+        return total;
+    }
+}
@@ -9,9 +9,27 @@ import 'package:flutter_v2ray_client/url/vless.dart';
 import 'package:flutter_v2ray_client/url/vmess.dart';
 
 import 'flutter_v2ray_platform_interface.dart';
+import 'model/v2ray_balancer_strategy.dart';
+import 'model/v2ray_connect_trace.dart';
+import 'model/v2ray_delay_stats.dart';
+import 'model/v2ray_failover_options.dart';
+import 'model/v2ray_probe_type.dart';
+import 'model/v2ray_server_quality.dart';
 import 'model/v2ray_status.dart';
+import 'model/v2ray_tun_engine.dart';
+import 'model/v2ray_tun2socks_log_level.dart';
+import 'model/v2ray_ipv6_mode.dart';
 
+export 'model/v2ray_balancer_strategy.dart';
+export 'model/v2ray_connect_trace.dart';
+export 'model/v2ray_delay_stats.dart';
+export 'model/v2ray_failover_options.dart';
+export 'model/v2ray_probe_type.dart';
+export 'model/v2ray_server_quality.dart';
 export 'model/v2ray_status.dart';
+export 'model/v2ray_tun_engine.dart';
+export 'model/v2ray_tun2socks_log_level.dart';
+export 'model/v2ray_ipv6_mode.dart';
 export 'url/url.dart';
 
 /// A class for managing V2Ray connections and operations.
@@ -54,37 +72,107 @@ class V2ray {
   /// [remark] is a string identifier for the connection.
   /// [config] is the V2Ray configuration in JSON format.
   /// [blockedApps] is an optional list of app package names to block.
-  /// [bypassSubnets] is an optional list of subnets to bypass the VPN.
+  /// [allowedApps] is an optional list of app package names that alone use the VPN, all other apps bypass it;
+  /// it can't be combined with [blockedApps] (Android only).
+  /// [bypassSubnets] is an optional list of subnets routed through the VPN; when set, only these subnets
+  /// use the VPN and all other traffic bypasses it (default routes everything). IPv6 subnets are ignored
+  /// while [ipv6Mode] is [V2RayIpv6Mode.off].
+  /// [excludedSubnets] is an optional list of subnets kept out of the VPN (Android only).
+  /// [bypassLan] keeps private, link-local and multicast ranges out of the VPN (default is false, Android only).
+  /// The routes are merged and reduced to the fewest CIDR blocks, so large lists stay cheap.
   /// [proxyOnly] is a boolean indicating whether to run in proxy-only mode.
   /// [notificationDisconnectButtonName] is the text for the disconnect button in notifications.
-  /// Throws an [ArgumentError] if the config is not valid JSON.
+  /// [failover] enables switching to another server when the connected one stops responding (Android only).
+  /// [tunEngine] selects how VPN packets reach the core (default is [V2RayTunEngine.tun2socks], Android only).
+  /// [tun2socksLogLevel] is the log level of tun2socks, logged under the `tun2socks` tag (default is [V2RayTun2socksLogLevel.error], Android only).
+  /// [mtu] is the MTU of the VPN interface (default is 1500, Android only). Pass 0 to derive it from the
+  /// underlying network and the server transport; the selected value is reported as an `MTU_SELECTED` event.
+  /// [ipv6Mode] selects whether IPv6 traffic bypasses, goes through or is refused by the VPN (default is [V2RayIpv6Mode.off], Android only).
+  /// [httpProxy] publishes the config's local HTTP inbound as the HTTP proxy of the VPN (default is false,
+  /// Android 10+ only), so proxy aware apps reach the core directly; loopback and LAN hosts are excluded.
+  /// It has no effect when the config has no HTTP inbound.
+  /// [stallWindow] enables a health watchdog on the VPN connection (default is null, disabled, Android only).
+  /// The connection counts as stalled when, for this long, uplink grows without any downlink, delay probes
+  /// of the server fail without any downlink, or tun2socks is down. Each stall runs the next recovery step:
+  /// reset connections, restart the core, then a full reconnect; every step is reported as a
+  /// `HEALTH_RECOVERY` event with its latency. Downlink detection needs traffic statistics enabled in the config.
+  /// Options marked Android only are passed on Android alone, other platforms get their defaults.
+  /// Throws an [ArgumentError] if the config or a failover config is not valid JSON,
+  /// if both [blockedApps] and [allowedApps] are set, if [mtu] is neither 0 nor between 1280 and 9000,
+  /// or if [stallWindow] is shorter than 5 seconds.
   /// Returns a [Future] that completes when the service starts.
   Future<void> startV2Ray({
     required String remark,
     required String config,
     List<String>? blockedApps,
+    List<String>? allowedApps,
     List<String>? bypassSubnets,
+    List<String>? excludedSubnets,
+    bool bypassLan = false,
     bool proxyOnly = false,
     String notificationDisconnectButtonName = 'DISCONNECT',
+    V2RayFailoverOptions? failover,
+    V2RayTunEngine tunEngine = V2RayTunEngine.tun2socks,
+    V2RayTun2socksLogLevel tun2socksLogLevel = V2RayTun2socksLogLevel.error,
+    int mtu = 1500,
+    V2RayIpv6Mode ipv6Mode = V2RayIpv6Mode.off,
+    bool httpProxy = false,
+    Duration? stallWindow,
   }) async {
-    try {
-      if (jsonDecode(config) == null) {
-        throw ArgumentError('The provided string is not valid JSON');
-      }
-    } catch (_) {
-      throw ArgumentError('The provided string is not valid JSON');
+    if ((blockedApps?.isNotEmpty ?? false) && (allowedApps?.isNotEmpty ?? false)) {
+      throw ArgumentError('blockedApps and allowedApps can not be used together');
+    }
+    if (mtu != 0 && (mtu < 1280 || mtu > 9000)) {
+      throw ArgumentError('The mtu must be 0 (automatic) or between 1280 and 9000');
+    }
+    if (stallWindow != null && stallWindow < const Duration(seconds: 5)) {
+      throw ArgumentError('The stallWindow must be at least 5 seconds');
     }
+    [config, ...?failover?.configs].forEach(_validateConfig);
 
+    final android = Platform.isAndroid;
     await FlutterV2rayPlatform.instance.startV2Ray(
       remark: remark,
       config: config,
       blockedApps: blockedApps,
+      allowedApps: android ? allowedApps : null,
       proxyOnly: proxyOnly,
       bypassSubnets: bypassSubnets,
+      excludedSubnets: android ? excludedSubnets : null,
+      bypassLan: android && bypassLan,
       notificationDisconnectButtonName: notificationDisconnectButtonName,
+      failover: android ? failover : null,
+      tunEngine: android ? tunEngine : V2RayTunEngine.tun2socks,
+      tun2socksLogLevel: android ? tun2socksLogLevel : V2RayTun2socksLogLevel.error,
+      mtu: android ? mtu : 1500,
+      ipv6Mode: android ? ipv6Mode : V2RayIpv6Mode.off,
+      httpProxy: android && httpProxy,
+      stallWindow: android ? stallWindow : null,
     );
   }
 
+  /// Switches the running connection to another server without tearing down the VPN interface,
+  /// so only connections in flight are dropped instead of a full reconnect.
+  /// The VPN routes, DNS servers, blocked apps and bypassed subnets of the running connection are kept.
+  /// When not connected, or when [config] uses another local SOCKS port, a full [startV2Ray] is made instead.
+  /// [config] is the V2Ray configuration in JSON format.
+  /// [remark] replaces the remark of the connection, null keeps the current one.
+  /// Throws an [ArgumentError] if the config is not valid JSON.
+  /// Returns a [Future] that completes with the switch time in milliseconds,
+  /// or -1 if a full restart was started instead or the service didn't answer
+  /// in time (Android only).
+  Future<int> switchServer({
+    required String config,
+    String? remark,
+  }) async {
+    _validateConfig(config);
+    if (Platform.isAndroid) {
+      return FlutterV2rayPlatform.instance
+          .switchServer(config: config, remark: remark);
+    }
+    return -1;
+  }
+
   /// Stops the V2Ray service.
   /// Returns a [Future] that completes when the service is stopped.
   Future<void> stopV2Ray() async {
@@ -94,21 +182,198 @@ class V2ray {
   /// Measures the delay to a V2Ray server using the provided configuration.
   /// [config] is the V2Ray configuration in JSON format.
   /// [url] is the server URL to test for delay (default is 'https://google.com/generate_204').
+  /// [type] is the probe used to measure the delay (default is [V2RayProbeType.http]);
+  /// [url] is only used by [V2RayProbeType.http].
   /// Throws an [ArgumentError] if the config is not valid JSON.
   /// Returns a [Future] that completes with the delay in milliseconds.
   Future<int> getServerDelay({
     required String config,
     String url = 'https://google.com/generate_204',
+    V2RayProbeType type = V2RayProbeType.http,
   }) async {
-    try {
-      if (jsonDecode(config) == null) {
-        throw ArgumentError('The provided string is not valid JSON');
-      }
-    } catch (_) {
-      throw ArgumentError('The provided string is not valid JSON');
+    _validateConfig(config);
+    return FlutterV2rayPlatform.instance
+        .getServerDelay(config: config, url: url, type: type);
+  }
+
+  /// Measures the delay to a list of V2Ray servers in parallel.
+  /// [configs] are the V2Ray configurations in JSON format.
+  /// [url] is the server URL to test for delay (default is 'https://google.com/generate_204').
+  /// [concurrency] is the number of servers probed at the same time (default is 8, at most 32).
+  /// [timeout] is the deadline for the whole list; servers not measured by then report -1.
+  /// [type] is the probe used to measure the delays (default is [V2RayProbeType.http]).
+  /// A cheap [V2RayProbeType.tcp] pass over a large list followed by an [V2RayProbeType.http]
+  /// pass over the reachable servers only is much faster than probing everything over HTTP.
+  /// Throws an [ArgumentError] if any config is not valid JSON.
+  /// Returns a [Future] that completes with the delay in milliseconds keyed by the index in [configs].
+  Future<Map<int, int>> getServerDelays({
+    required List<String> configs,
+    String url = 'https://google.com/generate_204',
+    int concurrency = 8,
+    Duration timeout = const Duration(seconds: 30),
+    V2RayProbeType type = V2RayProbeType.http,
+  }) async {
+    configs.forEach(_validateConfig);
+    return FlutterV2rayPlatform.instance.getServerDelays(
+      configs: configs,
+      url: url,
+      concurrency: concurrency,
+      timeout: timeout,
+      type: type,
+    );
+  }
+
+  /// Measures the delay to a list of V2Ray servers in parallel and emits each result as soon as
+  /// its probe completes, so large lists can be shown progressively.
+  /// Every stream runs its own probes and can be listened to once; cancelling the
+  /// subscription stops the remaining probes of that stream only.
+  /// [configs] are the V2Ray configurations in JSON format.
+  /// [url] is the server URL to test for delay (default is 'https://google.com/generate_204').
+  /// [concurrency] is the number of servers probed at the same time (default is 8, at most 32).
+  /// [timeout] is the deadline for the whole list; servers not measured by then report -1.
+  /// [type] is the probe used to measure the delays (default is [V2RayProbeType.http]).
+  /// Throws an [ArgumentError] if any config is not valid JSON.
+  /// Returns a [Stream] of delays in milliseconds keyed by the index in [configs].
+  Stream<MapEntry<int, int>> getServerDelaysStream({
+    required List<String> configs,
+    String url = 'https://google.com/generate_204',
+    int concurrency = 8,
+    Duration timeout = const Duration(seconds: 30),
+    V2RayProbeType type = V2RayProbeType.http,
+  }) {
+    configs.forEach(_validateConfig);
+    return FlutterV2rayPlatform.instance.getServerDelaysStream(
+      configs: configs,
+      url: url,
+      concurrency: concurrency,
+      timeout: timeout,
+      type: type,
+    );
+  }
+
+  /// Measures the delay to a V2Ray server several times and summarizes the samples.
+  /// Use the median and jitter of the result to rank servers instead of a single delay.
+  /// [config] is the V2Ray configuration in JSON format.
+  /// [url] is the server URL to test for delay (default is 'https://google.com/generate_204').
+  /// [samples] is the number of delay samples to take (default is 5, at most 20).
+  /// [interval] is the pause between two samples (default is 200 milliseconds).
+  /// [type] is the probe used to take the samples (default is [V2RayProbeType.http]).
+  /// Throws an [ArgumentError] if the config is not valid JSON.
+  /// Returns a [Future] that completes with the [V2RayDelayStats] of the samples.
+  Future<V2RayDelayStats> getServerDelayStats({
+    required String config,
+    String url = 'https://google.com/generate_204',
+    int samples = 5,
+    Duration interval = const Duration(milliseconds: 200),
+    V2RayProbeType type = V2RayProbeType.http,
+  }) async {
+    _validateConfig(config);
+    return FlutterV2rayPlatform.instance.getServerDelayStats(
+      config: config,
+      url: url,
+      samples: samples,
+      interval: interval,
+      type: type,
+    );
+  }
+
+  /// Configures the cache of server delay results.
+  /// Delays are cached per outbound and test URL, and concurrent requests for the same
+  /// server share a single probe.
+  /// [ttl] is how long a measured delay is reused (default is 30 seconds, [Duration.zero] disables caching);
+  /// failed probes are not cached.
+  /// [maxEntries] is the maximum number of cached results (default is 512).
+  /// Returns a [Future] that completes when the cache is configured.
+  Future<void> configureDelayCache({
+    Duration ttl = const Duration(seconds: 30),
+    int maxEntries = 512,
+  }) async {
+    await FlutterV2rayPlatform.instance.configureDelayCache(
+      ttl: ttl,
+      maxEntries: maxEntries,
+    );
+  }
+
+  /// Drops every cached server delay result so the next delay request probes again.
+  /// Returns a [Future] that completes when the cache is cleared.
+  Future<void> clearDelayCache() async {
+    await FlutterV2rayPlatform.instance.clearDelayCache();
+  }
+
+  /// Retrieves the counters of the server delay cache.
+  /// Returns a [Future] that completes with the `hits`, `misses`, `shared` (requests that
+  /// joined an in-flight probe), `size`, `ttl` (milliseconds) and `maxEntries` values.
+  Future<Map<String, int>> getDelayCacheStats() async {
+    return FlutterV2rayPlatform.instance.getDelayCacheStats();
+  }
+
+  /// Retrieves the best servers from the on-device quality records, without probing.
+  /// Every delay probe and connection is recorded per server and kept across app restarts,
+  /// so this can rank a server list instantly at startup.
+  /// Servers are ordered by their average delay weighted by their success rate;
+  /// servers that never answered come last.
+  /// [count] is the maximum number of servers to return (default is 10).
+  /// [configs] restricts the result to these V2Ray configurations and fills
+  /// [V2RayServerQuality.index]; null returns every recorded server.
+  /// Returns a [Future] that completes with the servers ordered best first.
+  Future<List<V2RayServerQuality>> getTopServers({
+    int count = 10,
+    List<String>? configs,
+  }) async {
+    if (Platform.isAndroid) {
+      return FlutterV2rayPlatform.instance
+          .getTopServers(count: count, configs: configs);
+    }
+    return [];
+  }
+
+  /// Merges several V2Ray configurations into one that balances traffic between their servers.
+  /// The inbounds, dns and routing of the first configuration are kept; the server outbound of
+  /// every configuration is tagged `proxy-<index>` and traffic to the proxy goes through a balancer.
+  /// [configs] are the V2Ray configurations in JSON format, the first one is also used for statistics
+  /// and the notification.
+  /// [strategy] is how the balancer picks a server (default is [V2RayBalancerStrategy.random]).
+  /// [url] is probed by the core to rank servers for [V2RayBalancerStrategy.leastPing] and
+  /// [V2RayBalancerStrategy.leastLoad] (default is 'https://google.com/generate_204').
+  /// Throws an [ArgumentError] if [configs] is empty or a config is not valid JSON.
+  /// Returns a [Future] that completes with the merged configuration to pass to [startV2Ray].
+  Future<String> buildBalancerConfig({
+    required List<String> configs,
+    V2RayBalancerStrategy strategy = V2RayBalancerStrategy.random,
+    String url = 'https://google.com/generate_204',
+  }) async {
+    if (configs.isEmpty) {
+      throw ArgumentError('At least one config is required');
     }
+    configs.forEach(_validateConfig);
     return FlutterV2rayPlatform.instance
-        .getServerDelay(config: config, url: url);
+        .buildBalancerConfig(configs: configs, strategy: strategy, url: url);
+  }
+
+  /// Retrieves timing traces of the most recent connects and disconnects (up to 20), oldest first.
+  /// Each trace breaks the time down into spans such as config parsing, service start,
+  /// core start, VPN interface setup, tun2socks start and the first downlink traffic.
+  /// The first downlink is found by polling the traffic counters every 50ms, so that span may be
+  /// up to 50ms late, and it is only recorded when traffic statistics are enabled.
+  /// Returns a [Future] that completes with the traces, empty on non-Android platforms.
+  Future<List<V2RayConnectTrace>> getConnectTraces() async {
+    if (Platform.isAndroid) {
+      return FlutterV2rayPlatform.instance.getConnectTraces();
+    }
+    return [];
+  }
+
+  /// Retrieves the supervisor counters of the tun2socks process of the VPN mode.
+  /// tun2socks is restarted with exponential backoff when it exits; after 5 exits within
+  /// a minute the VPN is stopped and a `TUN2SOCKS_CRASH_LOOP` event is sent on the status stream.
+  /// Returns a [Future] that completes with `running`, `restarts`, `lastExitCode`,
+  /// `uptime` and `backoff` (milliseconds), empty before the first VPN connect
+  /// and on non-Android platforms.
+  Future<Map<String, dynamic>> getTun2socksStats() async {
+    if (Platform.isAndroid) {
+      return FlutterV2rayPlatform.instance.getTun2socksStats();
+    }
+    return {};
   }
 
   /// Measures the delay to the currently connected V2Ray server.
@@ -168,4 +433,15 @@ class V2ray {
         throw ArgumentError('url is invalid');
     }
   }
+
+  /// Throws an [ArgumentError] if [config] is not valid JSON.
+  static void _validateConfig(String config) {
+    try {
+      if (jsonDecode(config) == null) {
+        throw ArgumentError('The provided string is not valid JSON');
+      }
+    } catch (_) {
+      throw ArgumentError('The provided string is not valid JSON');
+    }
+  }
 }
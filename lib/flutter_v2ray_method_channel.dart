@@ -1,8 +1,19 @@
+import 'dart:async';
+
 import 'package:flutter/foundation.dart';
 import 'package:flutter/services.dart';
 
 import 'flutter_v2ray_platform_interface.dart';
+import 'model/v2ray_balancer_strategy.dart';
+import 'model/v2ray_connect_trace.dart';
+import 'model/v2ray_delay_stats.dart';
+import 'model/v2ray_failover_options.dart';
+import 'model/v2ray_probe_type.dart';
+import 'model/v2ray_server_quality.dart';
 import 'model/v2ray_status.dart' show V2RayStatus;
+import 'model/v2ray_tun_engine.dart';
+import 'model/v2ray_tun2socks_log_level.dart';
+import 'model/v2ray_ipv6_mode.dart';
 
 /// An implementation of [FlutterV2rayPlatform] that uses method channels.
 class MethodChannelFlutterV2ray extends FlutterV2rayPlatform {
@@ -13,6 +24,12 @@ class MethodChannelFlutterV2ray extends FlutterV2rayPlatform {
   /// The event channel used to receive status updates from the native platform.
   final eventChannel = const EventChannel('flutter_v2ray_client/status');
 
+  /// Prefix of the event channels that deliver server delay results as each probe completes.
+  /// Every delay stream gets its own channel, `flutter_v2ray_client/delays/<id>`.
+  static const delayChannelPrefix = 'flutter_v2ray_client/delays';
+
+  int _nextDelayStreamId = 0;
+
   @override
   Future<void> initializeV2Ray({
     required void Function(V2RayStatus status) onStatusChanged,
@@ -28,6 +45,8 @@ class MethodChannelFlutterV2ray extends FlutterV2rayPlatform {
           upload: int.parse(event[3]),
           download: int.parse(event[4]),
           state: event[5],
+          event: event.length > 6 ? event[6] : null,
+          eventDetail: event.length > 7 ? event[7] : null,
         ));
       }
     });
@@ -46,16 +65,51 @@ class MethodChannelFlutterV2ray extends FlutterV2rayPlatform {
     required String config,
     required String notificationDisconnectButtonName,
     List<String>? blockedApps,
+    List<String>? allowedApps,
     List<String>? bypassSubnets,
+    List<String>? excludedSubnets,
+    bool bypassLan = false,
     bool proxyOnly = false,
+    V2RayFailoverOptions? failover,
+    V2RayTunEngine tunEngine = V2RayTunEngine.tun2socks,
+    V2RayTun2socksLogLevel tun2socksLogLevel = V2RayTun2socksLogLevel.error,
+    int mtu = 1500,
+    V2RayIpv6Mode ipv6Mode = V2RayIpv6Mode.off,
+    bool httpProxy = false,
+    Duration? stallWindow,
   }) async {
     await methodChannel.invokeMethod('startV2Ray', {
       'remark': remark,
       'config': config,
       'blocked_apps': blockedApps,
+      'allowed_apps': allowedApps,
       'bypass_subnets': bypassSubnets,
+      'excluded_subnets': excludedSubnets,
+      'bypass_lan': bypassLan,
       'proxy_only': proxyOnly,
       'notificationDisconnectButtonName': notificationDisconnectButtonName,
+      'failover_configs': failover?.configs,
+      'failover_url': failover?.url,
+      'failover_check_interval': failover?.checkInterval.inMilliseconds,
+      'failover_max_failures': failover?.maxFailures,
+      'failover_latency_threshold': failover?.latencyThreshold.inMilliseconds,
+      'tun_engine': tunEngine.name,
+      'tun2socks_log_level': tun2socksLogLevel.name,
+      'mtu': mtu,
+      'ipv6_mode': ipv6Mode.name,
+      'http_proxy': httpProxy,
+      'stall_window': stallWindow?.inMilliseconds,
+    });
+  }
+
+  @override
+  Future<int> switchServer({
+    required String config,
+    String? remark,
+  }) async {
+    return await methodChannel.invokeMethod('switchServer', {
+      'config': config,
+      'remark': remark,
     });
   }
 
@@ -68,13 +122,202 @@ class MethodChannelFlutterV2ray extends FlutterV2rayPlatform {
   Future<int> getServerDelay({
     required String config,
     required String url,
+    V2RayProbeType type = V2RayProbeType.http,
   }) async {
     return await methodChannel.invokeMethod('getServerDelay', {
       'config': config,
       'url': url,
+      'type': type.name,
     });
   }
 
+  @override
+  Future<Map<int, int>> getServerDelays({
+    required List<String> configs,
+    required String url,
+    required int concurrency,
+    required Duration timeout,
+    V2RayProbeType type = V2RayProbeType.http,
+  }) async {
+    final result = await methodChannel.invokeMapMethod<int, int>(
+      'getServerDelays',
+      {
+        'configs': configs,
+        'url': url,
+        'concurrency': concurrency,
+        'timeout': timeout.inMilliseconds,
+        'type': type.name,
+      },
+    );
+    return result ?? {};
+  }
+
+  @override
+  Stream<MapEntry<int, int>> getServerDelaysStream({
+    required List<String> configs,
+    required String url,
+    required int concurrency,
+    required Duration timeout,
+    V2RayProbeType type = V2RayProbeType.http,
+  }) {
+    // a channel per stream: cancelling a replaced stream clears the handlers of
+    // its own channel only, so it can't silence a newer stream
+    final id = _nextDelayStreamId++;
+    final channel = EventChannel('$delayChannelPrefix/$id');
+    StreamSubscription<dynamic>? subscription;
+    var cancelled = false;
+    late final StreamController<MapEntry<int, int>> controller;
+    controller = StreamController<MapEntry<int, int>>(
+      onListen: () async {
+        try {
+          await methodChannel
+              .invokeMethod('openServerDelaysStream', {'id': id});
+        } catch (error, stackTrace) {
+          controller.addError(error, stackTrace);
+          await controller.close();
+          return;
+        }
+        if (cancelled) {
+          await methodChannel
+              .invokeMethod('closeServerDelaysStream', {'id': id});
+          return;
+        }
+        subscription = channel.receiveBroadcastStream({
+          'configs': configs,
+          'url': url,
+          'concurrency': concurrency,
+          'timeout': timeout.inMilliseconds,
+          'type': type.name,
+        }).listen(
+          (event) {
+            final result = event as Map;
+            controller.add(
+                MapEntry(result['index'] as int, result['delay'] as int));
+          },
+          onError: controller.addError,
+          onDone: controller.close,
+        );
+      },
+      onCancel: () async {
+        cancelled = true;
+        await subscription?.cancel();
+      },
+    );
+    return controller.stream;
+  }
+
+  @override
+  Future<V2RayDelayStats> getServerDelayStats({
+    required String config,
+    required String url,
+    required int samples,
+    required Duration interval,
+    V2RayProbeType type = V2RayProbeType.http,
+  }) async {
+    final result = await methodChannel.invokeMapMethod<String, dynamic>(
+      'getServerDelayStats',
+      {
+        'config': config,
+        'url': url,
+        'samples': samples,
+        'interval': interval.inMilliseconds,
+        'type': type.name,
+      },
+    );
+    return V2RayDelayStats(
+      samples: result?['samples'] ?? 0,
+      min: result?['min'] ?? -1,
+      median: (result?['median'] ?? -1).toDouble(),
+      p90: result?['p90'] ?? -1,
+      jitter: (result?['jitter'] ?? -1).toDouble(),
+      loss: (result?['loss'] ?? 1).toDouble(),
+    );
+  }
+
+  @override
+  Future<void> configureDelayCache({
+    required Duration ttl,
+    required int maxEntries,
+  }) async {
+    await methodChannel.invokeMethod('configureDelayCache', {
+      'ttl': ttl.inMilliseconds,
+      'maxEntries': maxEntries,
+    });
+  }
+
+  @override
+  Future<void> clearDelayCache() async {
+    await methodChannel.invokeMethod('clearDelayCache');
+  }
+
+  @override
+  Future<Map<String, int>> getDelayCacheStats() async {
+    final result =
+        await methodChannel.invokeMapMethod<String, int>('getDelayCacheStats');
+    return result ?? {};
+  }
+
+  @override
+  Future<List<V2RayServerQuality>> getTopServers({
+    required int count,
+    List<String>? configs,
+  }) async {
+    final result = await methodChannel.invokeListMethod<Map>('getTopServers', {
+      'count': count,
+      'configs': configs,
+    });
+    return (result ?? [])
+        .map((server) => V2RayServerQuality(
+              fingerprint: server['fingerprint'],
+              index: server['index'],
+              latency: (server['latency'] as num).toDouble(),
+              successRate: (server['successRate'] as num).toDouble(),
+              lastSeen: DateTime.fromMillisecondsSinceEpoch(server['lastSeen']),
+              samples: server['samples'],
+            ))
+        .toList();
+  }
+
+  @override
+  Future<String> buildBalancerConfig({
+    required List<String> configs,
+    required V2RayBalancerStrategy strategy,
+    required String url,
+  }) async {
+    return await methodChannel.invokeMethod('buildBalancerConfig', {
+      'configs': configs,
+      'strategy': strategy.name,
+      'url': url,
+    });
+  }
+
+  @override
+  Future<List<V2RayConnectTrace>> getConnectTraces() async {
+    final result = await methodChannel.invokeListMethod<Map>('getConnectTraces');
+    return (result ?? [])
+        .map((trace) => V2RayConnectTrace(
+              kind: trace['kind'],
+              startedAt: DateTime.fromMillisecondsSinceEpoch(trace['startedAt']),
+              duration: (trace['duration'] as num).toDouble(),
+              complete: trace['complete'],
+              spans: (trace['spans'] as List)
+                  .map((span) => V2RayTraceSpan(
+                        name: span['name'],
+                        start: (span['start'] as num).toDouble(),
+                        duration: (span['duration'] as num).toDouble(),
+                      ))
+                  .toList(),
+            ))
+        .toList();
+  }
+
+  @override
+  Future<Map<String, dynamic>> getTun2socksStats() async {
+    final result = await methodChannel
+        .invokeMapMethod<String, dynamic>('getTun2socksStats');
+    return result ?? {};
+  }
+
   @override
   Future<int> getConnectedServerDelay(String url) async {
     return await methodChannel
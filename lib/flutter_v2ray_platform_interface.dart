@@ -1,4 +1,13 @@
+import 'package:flutter_v2ray_client/model/v2ray_balancer_strategy.dart';
+import 'package:flutter_v2ray_client/model/v2ray_connect_trace.dart';
+import 'package:flutter_v2ray_client/model/v2ray_delay_stats.dart';
+import 'package:flutter_v2ray_client/model/v2ray_failover_options.dart';
+import 'package:flutter_v2ray_client/model/v2ray_probe_type.dart';
+import 'package:flutter_v2ray_client/model/v2ray_server_quality.dart';
 import 'package:flutter_v2ray_client/model/v2ray_status.dart';
+import 'package:flutter_v2ray_client/model/v2ray_tun_engine.dart';
+import 'package:flutter_v2ray_client/model/v2ray_tun2socks_log_level.dart';
+import 'package:flutter_v2ray_client/model/v2ray_ipv6_mode.dart';
 import 'package:plugin_platform_interface/plugin_platform_interface.dart';
 
 import 'flutter_v2ray_method_channel.dart';
@@ -54,7 +63,10 @@ abstract class FlutterV2rayPlatform extends PlatformInterface {
   /// [config] is the V2Ray configuration in JSON format.
   /// [notificationDisconnectButtonName] is the text for the disconnect button in notifications.
   /// [blockedApps] is an optional list of apps to block.
-  /// [bypassSubnets] is an optional list of subnets to bypass.
+  /// [allowedApps] is an optional list of apps that alone use the VPN.
+  /// [bypassSubnets] is an optional list of subnets routed through the VPN; when set, only these subnets use it.
+  /// [excludedSubnets] is an optional list of subnets kept out of the VPN.
+  /// [bypassLan] keeps private, link-local and multicast ranges out of the VPN.
   /// [proxyOnly] is a boolean indicating whether to use proxy-only mode (default is false).
   /// Returns a [Future] that completes when the connection starts.
   Future<void> startV2Ray({
@@ -62,12 +74,34 @@ abstract class FlutterV2rayPlatform extends PlatformInterface {
     required String config,
     required String notificationDisconnectButtonName,
     List<String>? blockedApps,
+    List<String>? allowedApps,
     List<String>? bypassSubnets,
+    List<String>? excludedSubnets,
+    bool bypassLan = false,
     bool proxyOnly = false,
+    V2RayFailoverOptions? failover,
+    V2RayTunEngine tunEngine = V2RayTunEngine.tun2socks,
+    V2RayTun2socksLogLevel tun2socksLogLevel = V2RayTun2socksLogLevel.error,
+    int mtu = 1500,
+    V2RayIpv6Mode ipv6Mode = V2RayIpv6Mode.off,
+    bool httpProxy = false,
+    Duration? stallWindow,
   }) {
     throw UnimplementedError('startV2Ray() has not been implemented.');
   }
 
+  /// Switches the running connection to another server without tearing down the VPN interface.
+  /// [config] is the V2Ray configuration in JSON format.
+  /// [remark] replaces the remark of the connection, null keeps the current one.
+  /// Returns a [Future] that completes with the switch time in milliseconds,
+  /// or -1 if a full restart was started instead.
+  Future<int> switchServer({
+    required String config,
+    String? remark,
+  }) {
+    throw UnimplementedError('switchServer() has not been implemented.');
+  }
+
   /// Stops the V2Ray connection.
   /// Returns a [Future] that completes when the connection is stopped.
   Future<void> stopV2Ray() {
@@ -77,11 +111,131 @@ abstract class FlutterV2rayPlatform extends PlatformInterface {
   /// Measures the delay to a V2Ray server using the provided configuration and URL.
   /// [config] is the V2Ray configuration in JSON format.
   /// [url] is the server URL to test.
+  /// [type] is the probe used to measure the delay.
   /// Returns a [Future] that completes with the delay in milliseconds.
-  Future<int> getServerDelay({required String config, required String url}) {
+  Future<int> getServerDelay({
+    required String config,
+    required String url,
+    V2RayProbeType type = V2RayProbeType.http,
+  }) {
     throw UnimplementedError('getServerDelay() has not been implemented.');
   }
 
+  /// Measures the delay to many V2Ray servers in parallel on a bounded native worker pool.
+  /// [configs] are the V2Ray configurations in JSON format.
+  /// [url] is the server URL to test.
+  /// [concurrency] is the number of probes running at the same time.
+  /// [timeout] is the deadline for the whole batch; probes still pending after it report -1.
+  /// [type] is the probe used to measure the delays.
+  /// Returns a [Future] that completes with the delay in milliseconds keyed by the index in [configs].
+  Future<Map<int, int>> getServerDelays({
+    required List<String> configs,
+    required String url,
+    required int concurrency,
+    required Duration timeout,
+    V2RayProbeType type = V2RayProbeType.http,
+  }) {
+    throw UnimplementedError('getServerDelays() has not been implemented.');
+  }
+
+  /// Measures the delay to many V2Ray servers in parallel and emits each result as soon as
+  /// its probe completes.
+  /// [configs] are the V2Ray configurations in JSON format.
+  /// [url] is the server URL to test.
+  /// [concurrency] is the number of probes running at the same time.
+  /// [timeout] is the deadline for the whole batch; probes still pending after it report -1.
+  /// [type] is the probe used to measure the delays.
+  /// Returns a [Stream] of delays in milliseconds keyed by the index in [configs].
+  Stream<MapEntry<int, int>> getServerDelaysStream({
+    required List<String> configs,
+    required String url,
+    required int concurrency,
+    required Duration timeout,
+    V2RayProbeType type = V2RayProbeType.http,
+  }) {
+    throw UnimplementedError(
+      'getServerDelaysStream() has not been implemented.',
+    );
+  }
+
+  /// Measures the delay to a V2Ray server several times and summarizes the samples.
+  /// [config] is the V2Ray configuration in JSON format.
+  /// [url] is the server URL to test.
+  /// [samples] is the number of delay samples to take.
+  /// [interval] is the pause between two samples.
+  /// [type] is the probe used to take the samples.
+  /// Returns a [Future] that completes with the [V2RayDelayStats] of the samples.
+  Future<V2RayDelayStats> getServerDelayStats({
+    required String config,
+    required String url,
+    required int samples,
+    required Duration interval,
+    V2RayProbeType type = V2RayProbeType.http,
+  }) {
+    throw UnimplementedError('getServerDelayStats() has not been implemented.');
+  }
+
+  /// Configures the native cache of server delay results.
+  /// [ttl] is how long a measured delay is reused; [Duration.zero] disables caching.
+  /// [maxEntries] is the maximum number of cached results.
+  /// Returns a [Future] that completes when the cache is configured.
+  Future<void> configureDelayCache({
+    required Duration ttl,
+    required int maxEntries,
+  }) {
+    throw UnimplementedError('configureDelayCache() has not been implemented.');
+  }
+
+  /// Drops every cached server delay result.
+  /// Returns a [Future] that completes when the cache is cleared.
+  Future<void> clearDelayCache() {
+    throw UnimplementedError('clearDelayCache() has not been implemented.');
+  }
+
+  /// Retrieves the counters of the server delay cache.
+  /// Returns a [Future] that completes with the `hits`, `misses`, `shared`, `size`,
+  /// `ttl` and `maxEntries` values of the cache.
+  Future<Map<String, int>> getDelayCacheStats() {
+    throw UnimplementedError('getDelayCacheStats() has not been implemented.');
+  }
+
+  /// Retrieves the best servers from the on-device quality records, without probing.
+  /// [count] is the maximum number of servers to return.
+  /// [configs] restricts the result to these V2Ray configurations; null returns every recorded server.
+  /// Returns a [Future] that completes with the servers ordered best first.
+  Future<List<V2RayServerQuality>> getTopServers({
+    required int count,
+    List<String>? configs,
+  }) {
+    throw UnimplementedError('getTopServers() has not been implemented.');
+  }
+
+  /// Merges several V2Ray configurations into one that balances traffic between their servers.
+  /// [configs] are the V2Ray configurations in JSON format.
+  /// [strategy] is how the balancer picks a server.
+  /// [url] is probed by the core to rank servers.
+  /// Returns a [Future] that completes with the merged configuration.
+  Future<String> buildBalancerConfig({
+    required List<String> configs,
+    required V2RayBalancerStrategy strategy,
+    required String url,
+  }) {
+    throw UnimplementedError('buildBalancerConfig() has not been implemented.');
+  }
+
+  /// Retrieves timing traces of the most recent connects and disconnects, oldest first.
+  /// Returns a [Future] that completes with the traces.
+  Future<List<V2RayConnectTrace>> getConnectTraces() {
+    throw UnimplementedError('getConnectTraces() has not been implemented.');
+  }
+
+  /// Retrieves the supervisor counters of the tun2socks process.
+  /// Returns a [Future] that completes with the `running`, `restarts`, `lastExitCode`,
+  /// `uptime` and `backoff` values.
+  Future<Map<String, dynamic>> getTun2socksStats() {
+    throw UnimplementedError('getTun2socksStats() has not been implemented.');
+  }
+
   /// Measures the delay to the currently connected V2Ray server.
   /// [url] is the server URL to test.
   /// Returns a [Future] that completes with the delay in milliseconds.
@@ -0,0 +1,11 @@
+/// How a balancer built with `V2ray.buildBalancerConfig` picks a server for each connection.
+enum V2RayBalancerStrategy {
+  /// Picks a random server for every connection.
+  random,
+
+  /// Picks the server with the lowest delay measured by the core's observatory.
+  leastPing,
+
+  /// Picks the most stable server measured by the core's burst observatory.
+  leastLoad,
+}
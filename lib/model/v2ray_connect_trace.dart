@@ -0,0 +1,48 @@
+/// One timed stage of a [V2RayConnectTrace].
+class V2RayTraceSpan {
+  /// The name of the stage, e.g. 'parseV2rayJsonFile', 'startLoop', 'establish' or 'firstDownlink'.
+  final String name;
+
+  /// The time from the start of the trace to the start of the stage in milliseconds.
+  final double start;
+
+  /// The duration of the stage in milliseconds.
+  final double duration;
+
+  /// Creates a new V2RayTraceSpan instance with the given parameters.
+  V2RayTraceSpan({
+    required this.name,
+    required this.start,
+    required this.duration,
+  });
+}
+
+/// Where the time of one connect or disconnect went, measured on the monotonic clock.
+///
+/// Spans may overlap, since some stages run in parallel. A connect trace ends
+/// with the 'firstDownlink' span when traffic statistics are enabled.
+class V2RayConnectTrace {
+  /// Either 'connect' or 'disconnect'.
+  final String kind;
+
+  /// The wall clock time the trace started.
+  final DateTime startedAt;
+
+  /// The total duration of the trace in milliseconds.
+  final double duration;
+
+  /// Whether the trace ran to the end, false if it failed or was superseded by a new trace.
+  final bool complete;
+
+  /// The timed stages in the order they completed.
+  final List<V2RayTraceSpan> spans;
+
+  /// Creates a new V2RayConnectTrace instance with the given parameters.
+  V2RayConnectTrace({
+    required this.kind,
+    required this.startedAt,
+    required this.duration,
+    required this.complete,
+    required this.spans,
+  });
+}
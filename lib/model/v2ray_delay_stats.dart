@@ -0,0 +1,33 @@
+/// Latency statistics of a V2Ray server built from several delay samples.
+///
+/// Samples that failed count as lost. When every sample is lost the latency
+/// values are -1 and [loss] is 1.0.
+class V2RayDelayStats {
+  /// The number of samples taken.
+  final int samples;
+
+  /// The lowest measured delay in milliseconds.
+  final int min;
+
+  /// The median delay in milliseconds.
+  final double median;
+
+  /// The 90th percentile delay in milliseconds.
+  final int p90;
+
+  /// The standard deviation of the measured delays in milliseconds.
+  final double jitter;
+
+  /// The ratio of lost samples, between 0.0 and 1.0.
+  final double loss;
+
+  /// Creates a new V2RayDelayStats instance with the given parameters.
+  V2RayDelayStats({
+    required this.samples,
+    required this.min,
+    required this.median,
+    required this.p90,
+    required this.jitter,
+    required this.loss,
+  });
+}
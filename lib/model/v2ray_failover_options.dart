@@ -0,0 +1,31 @@
+/// Settings for automatic failover while a V2Ray connection is active.
+///
+/// The connected server is measured every [checkInterval]; after [maxFailures]
+/// consecutive failed (or slower than [latencyThreshold]) measurements the
+/// connection switches to the fastest reachable server in [configs].
+/// Switches are reported through [V2RayStatus.event].
+class V2RayFailoverOptions {
+  /// The candidate V2Ray configurations in JSON format, in order of preference.
+  final List<String> configs;
+
+  /// The time between two measurements of the connected server.
+  final Duration checkInterval;
+
+  /// The number of consecutive failed measurements that trigger a switch.
+  final int maxFailures;
+
+  /// A measurement slower than this counts as failed, [Duration.zero] only counts errors.
+  final Duration latencyThreshold;
+
+  /// The URL used to measure the connected server and the candidates.
+  final String url;
+
+  /// Creates failover settings for the given candidate [configs].
+  V2RayFailoverOptions({
+    required this.configs,
+    this.checkInterval = const Duration(seconds: 10),
+    this.maxFailures = 3,
+    this.latencyThreshold = Duration.zero,
+    this.url = 'https://google.com/generate_204',
+  });
+}
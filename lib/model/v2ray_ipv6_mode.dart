@@ -0,0 +1,13 @@
+/// How IPv6 traffic of apps is handled in VPN mode.
+enum V2RayIpv6Mode {
+  /// The VPN interface has no IPv6 address or route,
+  /// IPv6 traffic bypasses the tunnel.
+  off,
+
+  /// IPv6 traffic is carried through the tunnel, the server must support IPv6.
+  tunnel,
+
+  /// IPv6 traffic is captured and refused at once,
+  /// so apps fall back to IPv4 without waiting for a timeout.
+  block,
+}
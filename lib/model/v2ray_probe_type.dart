@@ -0,0 +1,12 @@
+/// The kind of probe used to measure the delay of a V2Ray server.
+enum V2RayProbeType {
+  /// Times a plain TCP connect to the server address. Cheapest, only proves the host is reachable.
+  tcp,
+
+  /// Times a TCP connect plus a TLS handshake with the server.
+  /// Servers without TLS or REALITY security are measured with [tcp] instead.
+  tls,
+
+  /// Times a full HTTP request through the V2Ray outbound. Most expensive and most accurate.
+  http,
+}
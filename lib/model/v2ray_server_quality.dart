@@ -0,0 +1,32 @@
+/// The recorded quality of a V2Ray server, built from every delay probe and
+/// connection made to it and kept across app restarts.
+class V2RayServerQuality {
+  /// The fingerprint of the server's outbounds, stable across formatting changes of its config.
+  final String fingerprint;
+
+  /// The position of the server in the list of configs the query was made with,
+  /// or -1 when the query was not restricted to a list.
+  final int index;
+
+  /// The moving average of the measured delay in milliseconds, -1 if never measured.
+  final double latency;
+
+  /// The moving average of successful probes and connections, between 0.0 and 1.0.
+  final double successRate;
+
+  /// The time the server was last probed or connected to.
+  final DateTime lastSeen;
+
+  /// The number of recorded probes and connections.
+  final int samples;
+
+  /// Creates a new V2RayServerQuality instance with the given parameters.
+  V2RayServerQuality({
+    required this.fingerprint,
+    required this.index,
+    required this.latency,
+    required this.successRate,
+    required this.lastSeen,
+    required this.samples,
+  });
+}
@@ -21,6 +21,12 @@ class V2RayStatus {
   /// The current connection state (e.g., 'CONNECTED', 'DISCONNECTED').
   final String state;
 
+  /// A one-off event reported with this status (e.g. 'FAILOVER_SWITCHED'), or null.
+  final String? event;
+
+  /// Details of [event], usually a JSON object, or null.
+  final String? eventDetail;
+
   /// Creates a new V2RayStatus instance with the given parameters.
   ///
   /// [duration] defaults to '00:00:00' if not provided.
@@ -29,6 +35,7 @@ class V2RayStatus {
   /// [upload] defaults to 0.
   /// [download] defaults to 0.
   /// [state] defaults to 'DISCONNECTED'.
+  /// [event] and [eventDetail] default to null.
   V2RayStatus({
     this.duration = '00:00:00',
     this.uploadSpeed = 0,
@@ -36,5 +43,7 @@ class V2RayStatus {
     this.upload = 0,
     this.download = 0,
     this.state = 'DISCONNECTED',
+    this.event,
+    this.eventDetail,
   });
 }
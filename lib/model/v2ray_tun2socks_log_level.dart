@@ -0,0 +1,21 @@
+/// Log level of the tun2socks process in VPN mode.
+/// Its output is forwarded to logcat under the `tun2socks` tag, rate limited.
+enum V2RayTun2socksLogLevel {
+  /// No output.
+  none,
+
+  /// Errors only.
+  error,
+
+  /// Errors and warnings.
+  warning,
+
+  /// Errors, warnings and notices such as connection setup.
+  notice,
+
+  /// Informational output, including per-connection messages.
+  info,
+
+  /// Everything, for debugging only.
+  debug,
+}
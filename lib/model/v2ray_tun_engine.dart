@@ -0,0 +1,10 @@
+/// How packets of the VPN interface reach the V2Ray core in VPN mode.
+enum V2RayTunEngine {
+  /// A separate tun2socks process reads the VPN interface and forwards
+  /// connections to the core's local SOCKS inbound.
+  tun2socks,
+
+  /// The core reads the VPN interface itself through its tun inbound,
+  /// without an extra process or the loopback SOCKS hop.
+  xray,
+}
@@ -82,5 +82,56 @@ void main() {
       expect(() => v2ray.getServerDelay(config: invalidConfig),
           throwsArgumentError);
     });
+
+    test('should throw ArgumentError for server delays with invalid JSON config',
+        () {
+      const validConfig = '{"inbounds": [], "outbounds": []}';
+      const invalidConfig = 'invalid json';
+
+      expect(
+          () => v2ray.getServerDelays(configs: [validConfig, invalidConfig]),
+          throwsArgumentError);
+    });
+
+    test('should throw ArgumentError for balancer config without configs', () {
+      expect(() => v2ray.buildBalancerConfig(configs: []), throwsArgumentError);
+    });
+
+    test('should throw ArgumentError for both blocked and allowed apps', () {
+      const validConfig = '{"inbounds": [], "outbounds": []}';
+
+      expect(
+          () => v2ray.startV2Ray(
+                remark: 'Test',
+                config: validConfig,
+                blockedApps: ['com.example.a'],
+                allowedApps: ['com.example.b'],
+              ),
+          throwsArgumentError);
+    });
+
+    test('should throw ArgumentError for out of range mtu', () {
+      const validConfig = '{"inbounds": [], "outbounds": []}';
+
+      expect(
+          () => v2ray.startV2Ray(
+                remark: 'Test',
+                config: validConfig,
+                mtu: 1000,
+              ),
+          throwsArgumentError);
+    });
+
+    test('should throw ArgumentError for too short stall window', () {
+      const validConfig = '{"inbounds": [], "outbounds": []}';
+
+      expect(
+          () => v2ray.startV2Ray(
+                remark: 'Test',
+                config: validConfig,
+                stallWindow: const Duration(seconds: 1),
+              ),
+          throwsArgumentError);
+    });
   });
 }
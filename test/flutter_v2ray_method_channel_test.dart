@@ -0,0 +1,71 @@
+import 'package:flutter/services.dart';
+import 'package:flutter_test/flutter_test.dart';
+import 'package:flutter_v2ray_client/flutter_v2ray_method_channel.dart';
+
+void main() {
+  TestWidgetsFlutterBinding.ensureInitialized();
+
+  group('Server delays stream Tests', () {
+    final messenger =
+        TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger;
+    late MethodChannelFlutterV2ray platform;
+    late Map<int, MockStreamHandlerEventSink> sinks;
+    late List<int> cancelled;
+
+    setUp(() {
+      platform = MethodChannelFlutterV2ray();
+      sinks = {};
+      cancelled = [];
+      messenger.setMockMethodCallHandler(platform.methodChannel, (call) async {
+        if (call.method == 'openServerDelaysStream') {
+          final id = (call.arguments as Map)['id'] as int;
+          messenger.setMockStreamHandler(
+            EventChannel(
+                '${MethodChannelFlutterV2ray.delayChannelPrefix}/$id'),
+            MockStreamHandler.inline(
+              onListen: (arguments, events) => sinks[id] = events,
+              onCancel: (arguments) => cancelled.add(id),
+            ),
+          );
+        }
+        return null;
+      });
+    });
+
+    tearDown(() {
+      messenger.setMockMethodCallHandler(platform.methodChannel, null);
+    });
+
+    Stream<MapEntry<int, int>> delays() => platform.getServerDelaysStream(
+          configs: ['{"inbounds": [], "outbounds": []}'],
+          url: 'https://google.com/generate_204',
+          concurrency: 1,
+          timeout: const Duration(seconds: 5),
+        );
+
+    test('cancelling a replaced stream keeps the newer one running', () async {
+      final first = delays().listen((_) {});
+      await pumpEventQueue();
+      final received = <MapEntry<int, int>>[];
+      var done = false;
+      final second =
+          delays().listen(received.add, onDone: () => done = true);
+      await pumpEventQueue();
+      expect(sinks, hasLength(2));
+      final firstId = sinks.keys.first;
+      final secondId = sinks.keys.last;
+
+      await first.cancel();
+      await pumpEventQueue();
+      expect(cancelled, [firstId]);
+
+      sinks[secondId]!.success({'index': 0, 'delay': 42});
+      sinks[secondId]!.endOfStream();
+      await pumpEventQueue();
+      expect(received.single.key, 0);
+      expect(received.single.value, 42);
+      expect(done, isTrue);
+      await second.cancel();
+    });
+  });
+}